@@ -25,10 +25,10 @@ import geom3d.Line3d;
  * @author hkb
  *
  */
-public class CyclicCoordinateDescent {
+public class CyclicCoordinateDescent extends LoopClosureSolver {
 	
-	private ChainTree loop;						// the loop to close including the target anchor
-	private Vector3D[] target;					// the position of the target
+	private double[] origin = new double[3];	// the first atom of the last bond an angle was computed for
+	private double[] axis = new double[3];		// the unit direction of that bond
 
 	
 	/**
@@ -38,74 +38,101 @@ public class CyclicCoordinateDescent {
 	 * @param cTree The backbone segment that contains the loop and ends in the target.
 	 * @param target The target residue.
 	 */
-	public CyclicCoordinateDescent(ChainTree cTree, ChainTree target) {		
-		this.target = new Vector3D[target.length()*3];
-		
-		int i = 0;
-		for (Point3D position : target.getBackboneAtomPositions()) {
-			this.target[i] = position.asVector();
-			
-			i++;
+	public CyclicCoordinateDescent(ChainTree cTree, ChainTree target) {
+		super(cTree, target);
+	}
+	
+	/**
+	 * Rotates each bond in turn by CCD.
+	 */
+	@Override
+	public void iterate(int[] bonds) {
+		for (int bond : bonds) {
+			this.step(bond);
 		}
-		
-		// store loop 
-		this.loop = cTree;
 	}
 
-	
+	/**
+	 * Returns the rotation of a bond that brings the moving terminal residue of the 
+	 * loop closest to the target.
+	 * 
+	 * With q the first atom of the bond, u its unit direction, v = M - q for a moving 
+	 * atom M and r = v - u(u.v) the component of v perpendicular to the bond, the squared 
+	 * distance to the target F is minimized by the rotation atan2(sum f.(u x r), sum f.r) 
+	 * where f = F - q.
+	 * 
+	 * @param bond The bond to rotate.
+	 * @return The rotation angle (as taken by changeRotationAngle) that minimises the 
+	 * 		   distance of the loop terminal to the target.
+	 */
 	public double getRotationAngle(int bond) {
+		this.updateMoving();
+		
 		// determine the rotation axis of the bond
-		int aminoAcid = this.loop.getAminoAcid(bond);
-		List<Point3D> bondAtoms = this.loop.getBackboneAtomPositions(aminoAcid, aminoAcid);
-		Line3D rotationAxis = new Line3D(bondAtoms.get(bond % 3), bondAtoms.get(bond % 3 + 1));
+		this.loop.getAtomPosition(bond, this.origin);
+		this.loop.getAtomPosition(bond+1, this.axis);
 		
-		// fetch the positions of the moving terminal residue
-		List<Point3D> movingTerminalAtoms = this.loop.getBackboneAtomPositions(this.loop.length(), this.loop.length());
+		double qx = this.origin[0], qy = this.origin[1], qz = this.origin[2];
+		double ux = this.axis[0] - qx, uy = this.axis[1] - qy, uz = this.axis[2] - qz;
+		double length = Math.sqrt(ux*ux + uy*uy + uz*uz);
+		
+		ux /= length; uy /= length; uz /= length;
+		
+		this.axis[0] = ux; this.axis[1] = uy; this.axis[2] = uz;
 		
 		// compute the values b, c
 		double b = 0;
 		double c = 0;
 		
-		for (int i = 0; i < this.target.length; i++) {
-			Vector3D M = new Vector3D(movingTerminalAtoms.get(i));
-			Vector3D F = this.target[i];
-			Vector3D O = rotationAxis.projectOnto(new Point3D(M)).asVector();
+		for (int i = 0; i < this.moving.length; i += 3) {
+			double vx = this.moving[i] - qx, vy = this.moving[i+1] - qy, vz = this.moving[i+2] - qz;
+			double fx = this.targetPositions[i] - qx, fy = this.targetPositions[i+1] - qy, fz = this.targetPositions[i+2] - qz;
 			
-			Vector3D r = O.vectorTo(M);
-			Vector3D f = O.vectorTo(F);
-			Vector3D o = rotationAxis.x.vectorTo(rotationAxis.y).norm();
-			Vector3D s = r.norm().cross(o);
-
-			double r2 = 2 * r.length();
-			b += r2 * f.dot(r.norm());
-			c += r2 * f.dot(s.norm());
+			// the component perpendicular to the axis
+			double d = ux*vx + uy*vy + uz*vz;
+			double rx = vx - d*ux, ry = vy - d*uy, rz = vz - d*uz;
+			
+			b += fx*rx + fy*ry + fz*rz;
+			c += fx*(uy*rz - uz*ry) + fy*(uz*rx - ux*rz) + fz*(ux*ry - uy*rx);
 		}
 		
-		/*
-		 * Compute alpha.
-		 */
-		double divisor = Math.sqrt(b*b+c*c);
+		if (b == 0 && c == 0)
+			return 0;
 		
-		// TODO why does the result come off in the opposit direction?
-		return -Math.atan2(c / divisor, b / divisor);
+		return Math.atan2(c, b);
 	}
 	
 	/**
-	 * Determines if the loop is closed.
+	 * Rotates a bond by the angle that brings the moving terminal residue closest to 
+	 * the target. The positions of the moving terminal atoms are rotated along with the
+	 * bond instead of being read from the loop again, so a sweep over the bonds of the
+	 * loop costs O(log n) per bond.
+	 * 
+	 * @param bond The bond to rotate.
+	 * @return The angle the bond has been rotated by.
 	 */
-	public double targetRMSDistance() {
-		// fetch the positions of the moving terminal residue
-		List<Point3D> movingTerminalAtoms = this.loop.getBackboneAtomPositions(this.loop.length(), this.loop.length());
+	public double step(int bond) {
+		double angle = this.getRotationAngle(bond);
 		
-		// calculate rmsd
-		double rmsd = 0;
+		this.loop.changeRotationAngle(bond, angle);
 		
-		for (int i = 0; i < this.target.length; i++) {
-			double tmp = movingTerminalAtoms.get(i).distance(new Point3D(this.target[i]));
-			rmsd += tmp*tmp;
+		// rotate the moving atoms after the bond about its axis (Rodrigues' formula)
+		double cos = Math.cos(angle), sin = Math.sin(angle);
+		double qx = this.origin[0], qy = this.origin[1], qz = this.origin[2];
+		double ux = this.axis[0], uy = this.axis[1], uz = this.axis[2];
+		
+		for (int i = Math.max(0, bond + 2 - this.first); i < this.moving.length / 3; i++) {
+			double vx = this.moving[3*i] - qx, vy = this.moving[3*i+1] - qy, vz = this.moving[3*i+2] - qz;
+			double d = (ux*vx + uy*vy + uz*vz) * (1 - cos);
+			
+			this.moving[3*i]   = qx + vx*cos + (uy*vz - uz*vy)*sin + ux*d;
+			this.moving[3*i+1] = qy + vy*cos + (uz*vx - ux*vz)*sin + uy*d;
+			this.moving[3*i+2] = qz + vz*cos + (ux*vy - uy*vx)*sin + uz*d;
 		}
 		
-		return Math.sqrt(rmsd / this.target.length);
+		this.modifications = this.loop.getModificationCount();
+		
+		return angle;
 	}
 	
 	
@@ -0,0 +1,149 @@
+package algorithm;
+
+import dataStructure.ChainTree;
+
+/**
+ * A loop closure solver that rotates all bonds of the loop at once by the damped
+ * least squares (Levenberg-Marquardt) step of the end effector.
+ *
+ * The Jacobian of the moving terminal atoms has the column u x (M - q) for a bond with
+ * first atom q and unit direction u and each moving atom M after it. The step solves
+ * (J J^T + lambda^2 I) y = F - M for the target F and changes the angles by J^T y, which
+ * near the target converges much faster than the one bond at a time sweeps of CCD.
+ */
+public class DampedLeastSquares extends LoopClosureSolver {
+
+	public static double DAMPING = 0.5;			// the damping lambda of the step (angstrom)
+	public static double MAX_STEP = 0.5;		// the largest change of a single angle in one step (radians)
+
+	private double[] origin = new double[3];	// buffer for the first atom of a bond
+	private double[] axis = new double[3];		// buffer for the second atom of a bond
+
+
+
+	/**
+	 * Creates a new solver from the unfolded loop and the target residue.
+	 *
+	 * @param cTree The backbone segment that contains the loop and ends in the target.
+	 * @param target The target residue.
+	 */
+	public DampedLeastSquares(ChainTree cTree, ChainTree target) {
+		super(cTree, target);
+	}
+
+	@Override
+	public void iterate(int[] bonds) {
+		this.step(bonds);
+	}
+
+	/**
+	 * Rotates all bonds by the damped least squares step towards the target.
+	 *
+	 * @param bonds The bonds of the loop to rotate.
+	 * @return The angles the bonds have been rotated by.
+	 */
+	public double[] step(int[] bonds) {
+		this.updateMoving();
+
+		int m = this.moving.length;
+		double[][] jacobian = new double[m][bonds.length];
+
+		// the columns of the jacobian
+		for (int j = 0; j < bonds.length; j++) {
+			this.loop.getAtomPosition(bonds[j], this.origin);
+			this.loop.getAtomPosition(bonds[j]+1, this.axis);
+
+			double qx = this.origin[0], qy = this.origin[1], qz = this.origin[2];
+			double ux = this.axis[0] - qx, uy = this.axis[1] - qy, uz = this.axis[2] - qz;
+			double length = Math.sqrt(ux*ux + uy*uy + uz*uz);
+
+			ux /= length; uy /= length; uz /= length;
+
+			for (int i = Math.max(0, bonds[j] + 2 - this.first); i < m / 3; i++) {
+				double vx = this.moving[3*i] - qx, vy = this.moving[3*i+1] - qy, vz = this.moving[3*i+2] - qz;
+
+				jacobian[3*i][j]   = uy*vz - uz*vy;
+				jacobian[3*i+1][j] = uz*vx - ux*vz;
+				jacobian[3*i+2][j] = ux*vy - uy*vx;
+			}
+		}
+
+		// (J J^T + lambda^2 I) y = F - M
+		double[][] a = new double[m][m+1];
+
+		for (int i = 0; i < m; i++) {
+			for (int k = i; k < m; k++) {
+				double sum = 0;
+
+				for (int j = 0; j < bonds.length; j++) {
+					sum += jacobian[i][j] * jacobian[k][j];
+				}
+
+				a[i][k] = a[k][i] = sum;
+			}
+
+			a[i][i] += DAMPING * DAMPING;
+			a[i][m] = this.targetPositions[i] - this.moving[i];
+		}
+
+		double[] y = solve(a);
+
+		// the change of the angles J^T y limited to the largest step
+		double[] delta = new double[bonds.length];
+		double largest = 0;
+
+		for (int j = 0; j < bonds.length; j++) {
+			for (int i = 0; i < m; i++) {
+				delta[j] += jacobian[i][j] * y[i];
+			}
+
+			largest = Math.max(largest, Math.abs(delta[j]));
+		}
+
+		double scale = (largest > MAX_STEP) ? MAX_STEP / largest : 1;
+
+		for (int j = 0; j < bonds.length; j++) {
+			delta[j] *= scale;
+
+			if (delta[j] != 0) {
+				this.loop.changeRotationAngle(bonds[j], delta[j]);
+			}
+		}
+
+		return delta;
+	}
+
+	/**
+	 * Solves a symmetric positive definite system by Gaussian elimination.
+	 *
+	 * @param a The matrix with the right hand side as its last column (overwritten).
+	 * @return The solution.
+	 */
+	private static double[] solve(double[][] a) {
+		int n = a.length;
+
+		for (int k = 0; k < n; k++) {
+			for (int i = k+1; i < n; i++) {
+				double factor = a[i][k] / a[k][k];
+
+				for (int j = k; j <= n; j++) {
+					a[i][j] -= factor * a[k][j];
+				}
+			}
+		}
+
+		double[] x = new double[n];
+
+		for (int i = n-1; i >= 0; i--) {
+			double sum = a[i][n];
+
+			for (int j = i+1; j < n; j++) {
+				sum -= a[i][j] * x[j];
+			}
+
+			x[i] = sum / a[i][i];
+		}
+
+		return x;
+	}
+}
@@ -0,0 +1,740 @@
+package algorithm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import math.Tuple2;
+
+import tool.RamachandranDistribution;
+import dataStructure.ChainTree;
+
+/**
+ * Closes a loop by kinematic closure of three pivot amino acids (the triaxial loop
+ * closure). The phi, psi angles of all other amino acids of the loop are fixed, which
+ * makes the backbone between two pivot alpha carbons a rigid body. The alpha carbon of
+ * the first pivot is fixed by the preceding chain and the alpha carbon of the last pivot
+ * by the target residue, so the middle one lies on a circle. For each point of the circle
+ * the phi, psi angles of the outer pivots that put it there are solved in closed form
+ * (two solutions each), which leaves a single equation: the bond angle at the middle
+ * alpha carbon must be met.
+ *
+ * Unlike the polynomial resultant formulation (Coutsias et al.), this equation is not
+ * solved exactly but by a numerical scan of the circle. The scan bisects every change of
+ * sign between its points. Where it passes closest to zero without a change of sign or
+ * meets the border of the part of the circle the outer pivots can reach, the neighbouring
+ * steps are scanned again finely and the closest point is tried as a root. The solutions
+ * are therefore approximate and not always complete:
+ * - two roots within one fine step (SCAN_STEPS * REFINE_STEPS points per circle) may
+ *   cancel out and be missed,
+ * - a root where the equation only touches zero is kept only if a golden section search
+ *   finds a point whose residual is below TOLERANCE,
+ * - solutions whose angles differ by less than DUPLICATE are reported once.
+ *
+ * A sampling step draws the fixed angles from a Ramachandran distribution and returns
+ * the closing solutions found for the pivots, so few iterations are spent on loops that
+ * can not be closed.
+ */
+public class KinematicClosure {
+
+	public static int SCAN_STEPS = 90;			// the number of points of the circle scanned for roots
+	public static int REFINE_STEPS = 8;			// the number of points each step is scanned again with near a missed root
+	public static int BISECTIONS = 40;			// the number of bisections of a root
+	public static double TOLERANCE = 1e-4;		// the largest RMSD of the target residue of a solution
+	public static double DUPLICATE = 1e-3;		// the largest difference of the angles of two equal solutions (radians)
+
+	private ChainTree loop;						// the loop to close including the target anchor
+	private int first, last;					// the first and last rotatable amino acid of the loop
+	private double[][] target = new double[3][];// the target positions of the N, CA and C atoms of the anchor
+	private RamachandranDistribution distribution = null;	// the distribution of the fixed angles (null if uniform)
+
+	private boolean testClashes = false;		// are solutions tested for clashes
+	private ChainTree other = null;				// a chain tree the closed loop must not clash with (null if none)
+
+	private long attempts, solutions, clashes;	// the outcomes of the solved pivots
+	private long time;							// the wall time of all attempts in nanoseconds
+
+	// the geometry of the current attempt (see solve)
+	private double[] ca1, a1, b1, w12, n2;		// the first pivot and the rigid body up to the middle pivot
+	private double[] c2, n3, w32;				// the rigid body between the middle and last pivot
+	private double[] ca3, e3;					// the last pivot relative to the rigid body after it
+	private double[][] frame;					// the rotation placing the anchor on its target
+	private double[] anchor, targetCA3;			// the N atom of the anchor and the target position of the last pivot
+	private double[] center, u, v;				// the circle of the middle pivot
+	private double radius, bondAngle;			// the radius of the circle and the cosine of the middle bond angle
+
+	// buffers of the residual
+	private double[] values = new double[0];	// the residuals of the scanned points
+	private double[] point = new double[3];		// the middle pivot on the circle
+	private double[] toPoint = new double[3];	// a pivot to the middle pivot
+	private double[] rotated = new double[3];	// a rotated vector
+	private double[] phiAxis = new double[3];	// the phi axis of the middle pivot seen from the first pivot
+	private double[] psiAxis = new double[3];	// the psi axis of the middle pivot seen from the last pivot
+
+
+
+	/**
+	 * Creates a closer of the loop towards the current position of its last residue.
+	 *
+	 * @param loop The loop to close ending in the target residue.
+	 * @param first The first rotatable amino acid of the loop.
+	 * @param last The last rotatable amino acid of the loop.
+	 */
+	public KinematicClosure(ChainTree loop, int first, int last) {
+		this(loop, loop.getSubchain(loop.length(), loop.length()), first, last);
+	}
+
+	/**
+	 * Creates a closer of the loop towards a target residue.
+	 *
+	 * @param loop The loop to close ending in the residue to bring onto the target.
+	 * @param target The target residue.
+	 * @param first The first rotatable amino acid of the loop.
+	 * @param last The last rotatable amino acid of the loop.
+	 */
+	public KinematicClosure(ChainTree loop, ChainTree target, int first, int last) {
+		if (first < 1 || last >= loop.length() || last - first < 2) {
+			throw new IllegalArgumentException("The loop must have at least three rotatable amino acids before the target residue!");
+		}
+
+		this.loop = loop;
+		this.first = first;
+		this.last = last;
+
+		for (int k = 0; k < 3; k++) {
+			this.target[k] = new double[3];
+			target.getAtomPosition(target.getPhi(target.length()) + k, this.target[k]);
+		}
+	}
+
+
+
+	/**
+	 * Sets the distribution the angles of the non pivot amino acids are sampled from.
+	 *
+	 * @param distribution The Ramachandran distribution or null for uniform angles.
+	 */
+	public void setDistribution(RamachandranDistribution distribution) {
+		this.distribution = distribution;
+	}
+
+	/**
+	 * Sets the clash test of solutions. A solution is tested for clashes of the loop with
+	 * itself and with another chain tree. Clashing solutions are counted but not returned.
+	 *
+	 * @param other A chain tree the loop must not clash with or null to disable the clash test.
+	 */
+	public void setClashTest(ChainTree other) {
+		this.testClashes = other != null;
+		this.other = other;
+	}
+
+	/**
+	 * The phi, psi bonds of the loop in pairs, in the order of the angles of a solution.
+	 */
+	public List<Integer> getBonds() {
+		List<Integer> bonds = new ArrayList<Integer>();
+
+		for (int i = this.first; i <= this.last; i++) {
+			bonds.add(this.loop.getPhi(i));
+			bonds.add(this.loop.getPsi(i));
+		}
+
+		return bonds;
+	}
+
+	/**
+	 * Samples the angles of all amino acids of the loop except the first, last and a
+	 * random middle pivot and solves the pivots.
+	 *
+	 * @return The dihedral angles of the loop bonds of each closing solution found.
+	 */
+	public List<double[]> sample() {
+		int middle = this.first + 1 + (int) (Math.random() * (this.last - this.first - 1));
+
+		for (int i = this.first + 1; i < this.last; i++) {
+			if (i == middle)
+				continue;
+
+			if (this.distribution == null) {
+				this.loop.setRotationAngle(this.loop.getPhi(i), (Math.random() - 0.5) * Math.PI * 2);
+				this.loop.setRotationAngle(this.loop.getPsi(i), (Math.random() - 0.5) * Math.PI * 2);
+			} else {
+				Tuple2<Double,Double> angles = this.distribution.purposeAngle(this.loop.getAminoAcidType(i));
+
+				this.loop.setRotationAngle(this.loop.getPhi(i), angles.x);
+				this.loop.setRotationAngle(this.loop.getPsi(i), angles.y);
+			}
+		}
+
+		return this.solve(this.first, middle, this.last);
+	}
+
+	/**
+	 * Sets the loop to a solution.
+	 *
+	 * @param angles The dihedral angles of the loop bonds of the solution.
+	 */
+	public void apply(double[] angles) {
+		for (int i = this.first; i <= this.last; i++) {
+			this.loop.setRotationAngle(this.loop.getPhi(i), angles[2*(i-this.first)]);
+			this.loop.setRotationAngle(this.loop.getPsi(i), angles[2*(i-this.first)+1]);
+		}
+	}
+
+	/**
+	 * Finds the phi, psi angles of three pivot amino acids that close the loop while the
+	 * angles of the other amino acids are kept, by a scan of the circle of the middle
+	 * pivot (see the class comment for the roots it may miss). The loop is left unchanged.
+	 *
+	 * @param pivot1 The first pivot.
+	 * @param pivot2 The middle pivot.
+	 * @param pivot3 The last pivot.
+	 * @return The dihedral angles of the loop bonds of each closing solution found.
+	 */
+	public List<double[]> solve(int pivot1, int pivot2, int pivot3) {
+		if (pivot1 < this.first || pivot3 > this.last || pivot2 <= pivot1 || pivot3 <= pivot2) {
+			throw new IllegalArgumentException("The pivots must be increasing amino acids of the loop!");
+		}
+
+		long start = System.nanoTime();
+		List<double[]> solutions = new ArrayList<double[]>();
+
+		this.attempts++;
+
+		if (this.prepare(pivot1, pivot2, pivot3)) {
+			double[] angles = new double[4];
+			double step = 2 * Math.PI / SCAN_STEPS;
+
+			if (this.values.length != SCAN_STEPS) {
+				this.values = new double[SCAN_STEPS];
+			}
+
+			// both solutions of the first and the last pivot
+			for (int s1 = -1; s1 <= 1; s1 += 2) {
+				for (int s3 = -1; s3 <= 1; s3 += 2) {
+					for (int k = 0; k < SCAN_STEPS; k++) {
+						this.values[k] = this.residual(k * step, s1, s3, angles);
+					}
+
+					for (int k = 0; k < SCAN_STEPS; k++) {
+						double previous = this.values[(k + SCAN_STEPS - 1) % SCAN_STEPS];
+						double current = this.values[k];
+						double next = this.values[(k + 1) % SCAN_STEPS];
+
+						if (Double.isNaN(current) != Double.isNaN(next)) {
+							// the edge of the part of the circle the outer pivots reach
+							this.refine(pivot1, pivot2, pivot3, k * step, (k+1) * step, s1, s3, solutions);
+							continue;
+						}
+
+						if (Double.isNaN(current))
+							continue;
+
+						if ((current < 0) != (next < 0)) {
+							this.addSolution(solutions, this.root(pivot1, pivot2, pivot3, k * step, current, (k+1) * step, s1, s3));
+						} else if (!Double.isNaN(previous) && (previous < 0) == (current < 0) && Math.abs(current) < Math.abs(previous) && Math.abs(current) < Math.abs(next)) {
+							// closest to zero without a change of sign
+							this.refine(pivot1, pivot2, pivot3, (k-1) * step, (k+1) * step, s1, s3, solutions);
+						}
+					}
+				}
+			}
+		}
+
+		this.solutions += solutions.size();
+		this.time += System.nanoTime() - start;
+
+		return solutions;
+	}
+
+	/**
+	 * Extracts the rigid bodies between the pivots from the current conformation.
+	 *
+	 * @return false if the middle pivot can not be placed else true.
+	 */
+	private boolean prepare(int pivot1, int pivot2, int pivot3) {
+		double[] n1 = this.position(this.loop.getPhi(pivot1));
+		double[] c1 = this.position(this.loop.getPsi(pivot1) + 1);
+		double[] atomN2 = this.position(this.loop.getPhi(pivot2));
+		double[] ca2 = this.position(this.loop.getPsi(pivot2));
+		double[] atomC2 = this.position(this.loop.getPsi(pivot2) + 1);
+		double[] atomN3 = this.position(this.loop.getPhi(pivot3));
+		double[] c3 = this.position(this.loop.getPsi(pivot3) + 1);
+
+		this.ca1 = this.position(this.loop.getPsi(pivot1));
+		this.ca3 = this.position(this.loop.getPsi(pivot3));
+
+		// the axes of the pivot bonds and the vectors between the pivots
+		this.a1 = unit(subtract(this.ca1, n1));
+		this.b1 = unit(subtract(c1, this.ca1));
+		this.w12 = subtract(ca2, this.ca1);
+		this.n2 = unit(subtract(ca2, atomN2));
+		this.c2 = unit(subtract(atomC2, ca2));
+		this.w32 = subtract(ca2, this.ca3);
+		this.n3 = unit(subtract(this.ca3, atomN3));
+		this.e3 = unit(subtract(c3, this.ca3));
+		this.bondAngle = dot(this.n2, this.c2);
+
+		// the rotation placing the anchor (and the rigid body after the last pivot) on the target
+		double[][] current = new double[3][];
+		for (int k = 0; k < 3; k++) {
+			current[k] = this.position(this.loop.getPhi(this.loop.length()) + k);
+		}
+
+		double[][] from = frame(current);
+		double[][] to = frame(this.target);
+
+		this.frame = new double[3][3];
+		for (int i = 0; i < 3; i++) {
+			for (int j = 0; j < 3; j++) {
+				this.frame[i][j] = to[0][i]*from[0][j] + to[1][i]*from[1][j] + to[2][i]*from[2][j];
+			}
+		}
+
+		this.anchor = current[0];
+		this.targetCA3 = this.place(this.ca3);
+
+		// the circle of the middle pivot around the line between the outer pivots
+		double[] axis = subtract(this.targetCA3, this.ca1);
+		double d = Math.sqrt(dot(axis, axis));
+		double r1 = dot(this.w12, this.w12);
+		double r2 = dot(this.w32, this.w32);
+		double x = (d*d + r1 - r2) / (2*d);
+
+		if (r1 - x*x < 0)
+			return false;
+
+		axis = scale(axis, 1 / d);
+
+		this.radius = Math.sqrt(r1 - x*x);
+		this.center = add(this.ca1, scale(axis, x));
+		this.u = unit(cross(axis, (Math.abs(axis[0]) < 0.9) ? new double[] {1, 0, 0} : new double[] {0, 1, 0}));
+		this.v = cross(axis, this.u);
+
+		return true;
+	}
+
+	/**
+	 * The difference between the cosine of the middle bond angle given by placing the
+	 * middle pivot on a point of the circle and the real one.
+	 *
+	 * @param theta The point of the circle.
+	 * @param s1 The solution of the first pivot (-1 or 1).
+	 * @param s3 The solution of the last pivot (-1 or 1).
+	 * @param angles Set to the changes of the psi, phi angle of the first pivot and the
+	 *        (inverse) phi, psi angle of the last pivot.
+	 * @return The difference or NaN if the point can not be reached.
+	 */
+	private double residual(double theta, int s1, int s3, double[] angles) {
+		double cos = this.radius * Math.cos(theta);
+		double sin = this.radius * Math.sin(theta);
+
+		for (int i = 0; i < 3; i++) {
+			this.point[i] = this.center[i] + this.u[i] * cos + this.v[i] * sin;
+			this.toPoint[i] = this.point[i] - this.ca1[i];
+		}
+
+		// the first pivot brings the middle pivot to the point
+		if (!this.solvePair(this.a1, this.b1, this.w12, this.toPoint, s1, angles, 0))
+			return Double.NaN;
+
+		// seen from the target, the last pivot brings the middle pivot to the point
+		this.unplace(this.point, this.toPoint);
+
+		for (int i = 0; i < 3; i++) {
+			this.toPoint[i] -= this.ca3[i];
+		}
+
+		if (!this.solvePair(this.e3, this.n3, this.w32, this.toPoint, s3, angles, 2))
+			return Double.NaN;
+
+		rotate(this.b1, angles[0], this.n2, this.rotated);
+		rotate(this.a1, angles[1], this.rotated, this.phiAxis);
+
+		rotate(this.n3, angles[2], this.c2, this.rotated);
+		rotate(this.e3, angles[3], this.rotated, this.rotated);
+		multiply(this.frame, this.rotated, this.psiAxis);
+
+		return dot(this.phiAxis, this.psiAxis) - this.bondAngle;
+	}
+
+	/**
+	 * Bisects a root of the residual and builds its solution.
+	 *
+	 * @return The dihedral angles of the loop bonds of the solution or null if it does
+	 *         not close the loop (or clashes).
+	 */
+	private double[] root(int pivot1, int pivot2, int pivot3, double low, double lowValue, double high, int s1, int s3) {
+		double[] angles = new double[4];
+
+		for (int i = 0; i < BISECTIONS; i++) {
+			double middle = (low + high) / 2;
+			double value = this.residual(middle, s1, s3, angles);
+
+			if (Double.isNaN(value))
+				return null;
+
+			if ((value < 0) == (lowValue < 0)) {
+				low = middle;
+				lowValue = value;
+			} else {
+				high = middle;
+			}
+		}
+
+		return this.solution(pivot1, pivot2, pivot3, (low + high) / 2, s1, s3);
+	}
+
+	/**
+	 * Scans a part of the circle finely for the roots the scan has missed. Changes of
+	 * sign are bisected, otherwise the point closest to zero is located by golden section
+	 * search and tried as a root the residual only touches.
+	 */
+	private void refine(int pivot1, int pivot2, int pivot3, double low, double high, int s1, int s3, List<double[]> solutions) {
+		double[] angles = new double[4];
+		int steps = 2 * REFINE_STEPS;
+		double step = (high - low) / steps;
+
+		double previous = this.residual(low, s1, s3, angles);
+		double closest = low;
+		double closestValue = Math.abs(previous);
+		boolean isCrossing = false;
+
+		for (int k = 1; k <= steps; k++) {
+			double theta = low + k * step;
+			double current = this.residual(theta, s1, s3, angles);
+
+			if (!Double.isNaN(current)) {
+				if (!Double.isNaN(previous) && (previous < 0) != (current < 0)) {
+					this.addSolution(solutions, this.root(pivot1, pivot2, pivot3, theta - step, previous, theta, s1, s3));
+					isCrossing = true;
+				}
+
+				if (Double.isNaN(closestValue) || Math.abs(current) < closestValue) {
+					closest = theta;
+					closestValue = Math.abs(current);
+				}
+			}
+
+			previous = current;
+		}
+
+		if (isCrossing || Double.isNaN(closestValue))
+			return;
+
+		// golden section search for the point closest to zero
+		double ratio = (Math.sqrt(5) - 1) / 2;
+		double a = closest - step, b = closest + step;
+
+		for (int i = 0; i < BISECTIONS; i++) {
+			double x1 = b - ratio * (b - a);
+			double x2 = a + ratio * (b - a);
+			double value1 = Math.abs(this.residual(x1, s1, s3, angles));
+			double value2 = Math.abs(this.residual(x2, s1, s3, angles));
+
+			// a point that can not be reached is never the closest
+			if (Double.isNaN(value1) || (!Double.isNaN(value2) && value2 < value1)) {
+				a = x1;
+			} else {
+				b = x2;
+			}
+		}
+
+		// does the residual touch zero?
+		if (Math.abs(this.residual((a + b) / 2, s1, s3, angles)) < TOLERANCE) {
+			this.addSolution(solutions, this.solution(pivot1, pivot2, pivot3, (a + b) / 2, s1, s3));
+		}
+	}
+
+	/**
+	 * Adds a solution to the solutions unless it is null or already found (the refined
+	 * scans near the edge of the circle may find a root of both solutions of a pivot).
+	 */
+	private void addSolution(List<double[]> solutions, double[] solution) {
+		if (solution == null)
+			return;
+
+		for (double[] other : solutions) {
+			double difference = 0;
+
+			for (int k = 0; k < solution.length; k++) {
+				difference = Math.max(difference, Math.abs(Math.IEEEremainder(solution[k] - other[k], 2 * Math.PI)));
+			}
+
+			if (difference < DUPLICATE)
+				return;
+		}
+
+		solutions.add(solution);
+	}
+
+	/**
+	 * Builds the solution of a point of the circle and tests if it closes the loop.
+	 *
+	 * @return The dihedral angles of the loop bonds of the solution or null if it does
+	 *         not close the loop (or clashes).
+	 */
+	private double[] solution(int pivot1, int pivot2, int pivot3, double theta, int s1, int s3) {
+		double[] angles = new double[4];
+
+		if (Double.isNaN(this.residual(theta, s1, s3, angles)))
+			return null;
+
+		// the rotation between the rigid bodies at the middle pivot
+		double[] q = rotate(this.b1, -angles[0], rotate(this.a1, -angles[1], multiply(this.frame, rotate(this.e3, angles[3], rotate(this.n3, angles[2], this.c2)))));
+		double[] p = rotate(this.b1, -angles[0], rotate(this.a1, -angles[1], multiply(this.frame, rotate(this.e3, angles[3], rotate(this.n3, angles[2], this.n2)))));
+		double deltaPhi2 = azimuth(this.n2, this.c2, q);
+		double deltaPsi2 = azimuth(this.c2, this.n2, rotate(this.n2, -deltaPhi2, p));
+
+		int[] bonds = { this.loop.getPhi(pivot1), this.loop.getPsi(pivot1), this.loop.getPhi(pivot2), this.loop.getPsi(pivot2), this.loop.getPhi(pivot3), this.loop.getPsi(pivot3) };
+		double[] deltas = { angles[1], angles[0], deltaPhi2, deltaPsi2, -angles[2], -angles[3] };
+		double[] old = new double[bonds.length];
+
+		for (int k = 0; k < bonds.length; k++) {
+			old[k] = this.loop.getDihedralAngle(bonds[k]);
+			this.loop.changeRotationAngle(bonds[k], deltas[k]);
+		}
+
+		double[] solution = null;
+
+		if (this.targetRMSD() < TOLERANCE) {
+			if (this.testClashes && (this.loop.isClashing() || this.loop.areClashing(this.other))) {
+				this.clashes++;
+			} else {
+				solution = new double[2 * (this.last - this.first + 1)];
+
+				for (int i = this.first; i <= this.last; i++) {
+					solution[2*(i-this.first)] = this.loop.getDihedralAngle(this.loop.getPhi(i));
+					solution[2*(i-this.first)+1] = this.loop.getDihedralAngle(this.loop.getPsi(i));
+				}
+			}
+		}
+
+		for (int k = 0; k < bonds.length; k++) {
+			this.loop.setRotationAngle(bonds[k], old[k]);
+		}
+
+		return solution;
+	}
+
+	/**
+	 * The RMSD of the N, CA and C atoms of the anchor to their targets.
+	 */
+	private double targetRMSD() {
+		double sum = 0;
+
+		for (int k = 0; k < 3; k++) {
+			double[] d = subtract(this.position(this.loop.getPhi(this.loop.length()) + k), this.target[k]);
+			sum += dot(d, d);
+		}
+
+		return Math.sqrt(sum / 3);
+	}
+
+
+
+	/**
+	 * The statistics of the solved pivots.
+	 */
+	public long getAttempts() {
+		return this.attempts;
+	}
+
+	/**
+	 * The number of closing (clash free if tested) solutions of all attempts.
+	 */
+	public long getSolutions() {
+		return this.solutions;
+	}
+
+	/**
+	 * The number of closing solutions that clashed.
+	 */
+	public long getClashes() {
+		return this.clashes;
+	}
+
+	/**
+	 * The wall time of all attempts in milliseconds.
+	 */
+	public double getTime() {
+		return this.time / 1000000.0;
+	}
+
+	/**
+	 * The number of solutions per second of solving.
+	 */
+	public double getSolutionsPerSecond() {
+		return (this.time == 0) ? 0 : this.solutions / (this.time / 1000000000.0);
+	}
+
+	/**
+	 * Resets the statistics.
+	 */
+	public void resetStatistics() {
+		this.attempts = this.solutions = this.clashes = this.time = 0;
+	}
+
+	/**
+	 * A summary of the statistics.
+	 */
+	public String getStatistics() {
+		return this.attempts + " attempts, " + this.solutions + " solutions, " + this.clashes + " clashing, " +
+			   String.format("%.1f", this.getTime()) + " ms, " + String.format("%.1f", this.getSolutionsPerSecond()) + " solutions/s";
+	}
+
+
+
+	/**
+	 * Solves the rotations about two intersecting axes that bring a vector onto a target
+	 * of the same length: first about an inner axis (which is carried along), then about
+	 * an outer fixed axis.
+	 *
+	 * @param outer The fixed axis.
+	 * @param inner The carried axis.
+	 * @param w The vector.
+	 * @param target The target.
+	 * @param sign The solution of the inner angle (-1 or 1).
+	 * @param angles Set to the inner and outer angle at offset and offset+1.
+	 * @return false if the target can not be reached else true.
+	 */
+	private boolean solvePair(double[] outer, double[] inner, double[] w, double[] target, int sign, double[] angles, int offset) {
+		double a = dot(outer, inner) * dot(inner, w);
+		double b = dot(outer, w) - a;
+		double c = tripleProduct(outer, inner, w);
+		double r = Math.sqrt(b*b + c*c);
+		double x = (dot(outer, target) - a) / r;
+
+		if (x < -1 || x > 1)
+			return false;
+
+		angles[offset] = Math.atan2(c, b) + sign * Math.acos(x);
+
+		rotate(inner, angles[offset], w, this.rotated);
+		angles[offset+1] = azimuth(outer, this.rotated, target);
+
+		return true;
+	}
+
+	/**
+	 * The angle of the rotation about a unit axis that brings the projection of one
+	 * vector onto the projection of another.
+	 */
+	private static double azimuth(double[] axis, double[] from, double[] to) {
+		// the parts along the axis drop out of the triple product
+		return Math.atan2(tripleProduct(axis, from, to), dot(from, to) - dot(axis, from) * dot(axis, to));
+	}
+
+	/**
+	 * The orthonormal frame of three points (as rows).
+	 */
+	private static double[][] frame(double[][] points) {
+		double[] x = unit(subtract(points[1], points[0]));
+		double[] y = subtract(points[2], points[0]);
+		y = unit(subtract(y, scale(x, dot(x, y))));
+
+		return new double[][] { x, y, cross(x, y) };
+	}
+
+	/**
+	 * Moves a point rigidly with the anchor onto the target.
+	 */
+	private double[] place(double[] point) {
+		return add(multiply(this.frame, subtract(point, this.anchor)), this.target[0]);
+	}
+
+	/**
+	 * Moves a point rigidly with the target onto the current anchor.
+	 *
+	 * @param point The point.
+	 * @param result Set to the moved point (not the point).
+	 */
+	private void unplace(double[] point, double[] result) {
+		double dx = point[0] - this.target[0][0];
+		double dy = point[1] - this.target[0][1];
+		double dz = point[2] - this.target[0][2];
+
+		for (int i = 0; i < 3; i++) {
+			result[i] = this.frame[0][i]*dx + this.frame[1][i]*dy + this.frame[2][i]*dz + this.anchor[i];
+		}
+	}
+
+	private double[] position(int atom) {
+		double[] position = new double[3];
+		this.loop.getAtomPosition(atom, position);
+
+		return position;
+	}
+
+	/**
+	 * Rotates a vector about a unit axis (Rodrigues' formula).
+	 */
+	private static double[] rotate(double[] axis, double angle, double[] w) {
+		double[] result = new double[3];
+		rotate(axis, angle, w, result);
+
+		return result;
+	}
+
+	/**
+	 * Rotates a vector about a unit axis (Rodrigues' formula).
+	 *
+	 * @param result Set to the rotated vector (may be the vector).
+	 */
+	private static void rotate(double[] axis, double angle, double[] w, double[] result) {
+		double cos = Math.cos(angle);
+		double sin = Math.sin(angle);
+		double x = w[0], y = w[1], z = w[2];
+		double along = (axis[0]*x + axis[1]*y + axis[2]*z) * (1 - cos);
+
+		result[0] = x*cos + (axis[1]*z - axis[2]*y)*sin + axis[0]*along;
+		result[1] = y*cos + (axis[2]*x - axis[0]*z)*sin + axis[1]*along;
+		result[2] = z*cos + (axis[0]*y - axis[1]*x)*sin + axis[2]*along;
+	}
+
+	private static double[] multiply(double[][] m, double[] w) {
+		double[] result = new double[3];
+		multiply(m, w, result);
+
+		return result;
+	}
+
+	/**
+	 * @param result Set to the product (may be the vector).
+	 */
+	private static void multiply(double[][] m, double[] w, double[] result) {
+		double x = w[0], y = w[1], z = w[2];
+
+		result[0] = m[0][0]*x + m[0][1]*y + m[0][2]*z;
+		result[1] = m[1][0]*x + m[1][1]*y + m[1][2]*z;
+		result[2] = m[2][0]*x + m[2][1]*y + m[2][2]*z;
+	}
+
+	private static double[] add(double[] a, double[] b) {
+		return new double[] { a[0]+b[0], a[1]+b[1], a[2]+b[2] };
+	}
+
+	private static double[] subtract(double[] a, double[] b) {
+		return new double[] { a[0]-b[0], a[1]-b[1], a[2]-b[2] };
+	}
+
+	private static double[] scale(double[] a, double s) {
+		return new double[] { a[0]*s, a[1]*s, a[2]*s };
+	}
+
+	private static double dot(double[] a, double[] b) {
+		return a[0]*b[0] + a[1]*b[1] + a[2]*b[2];
+	}
+
+	private static double tripleProduct(double[] a, double[] b, double[] c) {
+		return a[0]*(b[1]*c[2]-b[2]*c[1]) + a[1]*(b[2]*c[0]-b[0]*c[2]) + a[2]*(b[0]*c[1]-b[1]*c[0]);
+	}
+
+	private static double[] cross(double[] a, double[] b) {
+		return new double[] { a[1]*b[2]-a[2]*b[1], a[2]*b[0]-a[0]*b[2], a[0]*b[1]-a[1]*b[0] };
+	}
+
+	private static double[] unit(double[] a) {
+		return scale(a, 1 / Math.sqrt(dot(a, a)));
+	}
+}
@@ -0,0 +1,323 @@
+package algorithm;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import dataStructure.ChainTree;
+import energyFunction.DifferentiableEnergy;
+
+/**
+ * A quasi-Newton minimizer (L-BFGS) of an energy over the dihedral angles of the
+ * rotatable bonds of a chain. It is a local refinement alternative to the stochastic
+ * and CCD based moves.
+ *
+ * Each iteration takes the search direction from the last few steps and gradient
+ * changes (two-loop recursion) and searches along it by backtracking. A trial step is
+ * made as a move of the tree (propose) and undone (reject) if it makes the chain clash
+ * or does not decrease the energy sufficiently (Armijo condition), so the chain never
+ * leaves the clash free conformations.
+ */
+public class LimitedMemoryBFGS {
+
+	public static int MEMORY = 7;					// the number of steps remembered for the curvature
+	public static int MAX_ITERATIONS = 100;			// the default maximal number of iterations
+	public static double GRADIENT_TOLERANCE = 1e-5;	// the largest derivative at which the minimum is reached
+	public static double MAX_STEP = 0.5;			// the largest change of a single angle in one step (radians)
+	public static double SUFFICIENT_DECREASE = 1e-4;// the fraction of the predicted decrease a step must achieve
+	public static int MAX_BACKTRACKS = 20;			// the maximal number of step halvings in a line search
+
+	private ChainTree cTree;						// the chain to minimize the energy of
+	private ChainTree other;						// a chain tree the chain must not clash with (null if none)
+	private DifferentiableEnergy energyFunction;	// the energy to minimize
+	private int[] bonds;							// the bonds whose angles are optimized
+
+	private LinkedList<double[]> steps = new LinkedList<double[]>();	// the last steps (newest first)
+	private LinkedList<double[]> changes = new LinkedList<double[]>();	// the gradient changes of the last steps
+	private LinkedList<Double> curvatures = new LinkedList<Double>();	// 1 / (change . step) of the last steps
+
+	private int iterations;							// the number of iterations of the last minimization
+	private int rejections;							// the number of rejected trial steps of the last minimization
+
+
+
+	/**
+	 * Creates a minimizer over all rotatable bonds of the chain.
+	 *
+	 * @param cTree The chain to minimize the energy of.
+	 * @param energyFunction The energy to minimize.
+	 */
+	public LimitedMemoryBFGS(ChainTree cTree, DifferentiableEnergy energyFunction) {
+		this(cTree, null, energyFunction, cTree.rotatableBonds());
+	}
+
+	/**
+	 * Creates a minimizer.
+	 *
+	 * @param cTree The chain to minimize the energy of.
+	 * @param other A chain tree the chain must not clash with or null if none.
+	 * @param energyFunction The energy to minimize.
+	 * @param bonds The bonds whose angles are optimized.
+	 */
+	public LimitedMemoryBFGS(ChainTree cTree, ChainTree other, DifferentiableEnergy energyFunction, List<Integer> bonds) {
+		this.cTree = cTree;
+		this.other = other;
+		this.energyFunction = energyFunction;
+		this.bonds = new int[bonds.size()];
+
+		for (int i = 0; i < this.bonds.length; i++) {
+			this.bonds[i] = bonds.get(i);
+		}
+	}
+
+
+
+	/**
+	 * Minimizes the energy with the default number of iterations.
+	 *
+	 * @return The energy of the final conformation.
+	 */
+	public double minimize() {
+		return this.minimize(MAX_ITERATIONS);
+	}
+
+	/**
+	 * Minimizes the energy from the current conformation of the chain, which is assumed
+	 * to be clash free.
+	 *
+	 * @param maxIterations The maximal number of iterations.
+	 * @return The energy of the final conformation.
+	 */
+	public double minimize(int maxIterations) {
+		this.steps.clear();
+		this.changes.clear();
+		this.curvatures.clear();
+		this.iterations = 0;
+		this.rejections = 0;
+
+		double energy = this.energyFunction.compute();
+		double[] gradient = this.gradient();
+
+		while (this.iterations < maxIterations && norm(gradient) > GRADIENT_TOLERANCE) {
+			this.iterations++;
+
+			double[] direction = this.direction(gradient);
+			double slope = dot(gradient, direction);
+
+			// the remembered curvature does not give a descent direction
+			if (slope >= 0) {
+				this.forget();
+				direction = this.direction(gradient);
+				slope = dot(gradient, direction);
+			}
+
+			// search along the direction
+			double step = this.lineSearch(direction, energy, slope);
+
+			if (step == 0) {
+				// retry once along the steepest descent
+				if (this.steps.isEmpty())
+					break;
+
+				this.forget();
+				continue;
+			}
+
+			// remember the step and the change of the gradient
+			double[] next = this.gradient();
+			double[] s = new double[this.bonds.length];
+			double[] y = new double[this.bonds.length];
+
+			for (int i = 0; i < this.bonds.length; i++) {
+				s[i] = step * direction[i];
+				y[i] = next[i] - gradient[i];
+			}
+
+			double sy = dot(s, y);
+
+			if (sy > 1e-12) {
+				this.steps.addFirst(s);
+				this.changes.addFirst(y);
+				this.curvatures.addFirst(1 / sy);
+
+				if (this.steps.size() > MEMORY) {
+					this.steps.removeLast();
+					this.changes.removeLast();
+					this.curvatures.removeLast();
+				}
+			}
+
+			energy = this.energyFunction.compute();
+			gradient = next;
+		}
+
+		return energy;
+	}
+
+	/**
+	 * The number of iterations of the last minimization.
+	 *
+	 * @return The number of iterations.
+	 */
+	public int getIterations() {
+		return this.iterations;
+	}
+
+	/**
+	 * The number of trial steps rejected by the line searches of the last minimization.
+	 *
+	 * @return The number of rejected steps.
+	 */
+	public int getRejections() {
+		return this.rejections;
+	}
+
+	/**
+	 * Searches for a step along the direction that keeps the chain clash free and
+	 * decreases the energy sufficiently. The chain is left in the conformation of the
+	 * step.
+	 *
+	 * @param direction The search direction.
+	 * @param energy The current energy.
+	 * @param slope The derivative of the energy along the direction.
+	 * @return The accepted step length or 0 if no step was found.
+	 */
+	private double lineSearch(double[] direction, double energy, double slope) {
+		// limit the change of every angle
+		double largest = 0;
+		for (double d : direction) {
+			largest = Math.max(largest, Math.abs(d));
+		}
+
+		double step = (largest > MAX_STEP) ? MAX_STEP / largest : 1;
+
+		for (int backtracks = 0; backtracks < MAX_BACKTRACKS; backtracks++) {
+			this.cTree.propose();
+
+			for (int i = 0; i < this.bonds.length; i++) {
+				if (direction[i] != 0) {
+					this.cTree.changeRotationAngle(this.bonds[i], step * direction[i]);
+				}
+			}
+
+			if (!this.isClashing() && this.energyFunction.compute() <= energy + SUFFICIENT_DECREASE * step * slope) {
+				this.cTree.accept();
+				return step;
+			}
+
+			this.cTree.reject();
+			this.rejections++;
+
+			step /= 2;
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Computes the search direction -H g by the two-loop recursion over the remembered
+	 * steps.
+	 *
+	 * @param gradient The current gradient.
+	 * @return The search direction.
+	 */
+	private double[] direction(double[] gradient) {
+		int m = this.steps.size();
+		double[] q = new double[gradient.length];
+		double[] alpha = new double[m];
+
+		for (int i = 0; i < q.length; i++) {
+			q[i] = -gradient[i];
+		}
+
+		// newest to oldest
+		for (int k = 0; k < m; k++) {
+			double[] s = this.steps.get(k);
+			double[] y = this.changes.get(k);
+
+			alpha[k] = this.curvatures.get(k) * dot(s, q);
+
+			for (int i = 0; i < q.length; i++) {
+				q[i] -= alpha[k] * y[i];
+			}
+		}
+
+		// scale by the curvature of the newest step
+		if (m > 0) {
+			double[] y = this.changes.getFirst();
+			double gamma = 1 / (this.curvatures.getFirst() * dot(y, y));
+
+			for (int i = 0; i < q.length; i++) {
+				q[i] *= gamma;
+			}
+		}
+
+		// oldest to newest
+		for (int k = m-1; k >= 0; k--) {
+			double[] s = this.steps.get(k);
+			double[] y = this.changes.get(k);
+			double beta = this.curvatures.get(k) * dot(y, q);
+
+			for (int i = 0; i < q.length; i++) {
+				q[i] += (alpha[k] - beta) * s[i];
+			}
+		}
+
+		return q;
+	}
+
+	/**
+	 * Forgets the remembered steps.
+	 */
+	private void forget() {
+		this.steps.clear();
+		this.changes.clear();
+		this.curvatures.clear();
+	}
+
+	/**
+	 * Computes the gradient of the energy with respect to the optimized angles.
+	 */
+	private double[] gradient() {
+		double[] all = this.cTree.energyGradient(this.energyFunction);
+		double[] gradient = new double[this.bonds.length];
+
+		for (int i = 0; i < this.bonds.length; i++) {
+			gradient[i] = all[this.bonds[i]];
+		}
+
+		return gradient;
+	}
+
+	/**
+	 * Determines if the chain clashes with itself or the other chain.
+	 */
+	private boolean isClashing() {
+		return this.cTree.isClashing() || (this.other != null && this.cTree.areClashing(this.other));
+	}
+
+	/**
+	 * The dot product of two vectors.
+	 */
+	private static double dot(double[] u, double[] v) {
+		double sum = 0;
+
+		for (int i = 0; i < u.length; i++) {
+			sum += u[i] * v[i];
+		}
+
+		return sum;
+	}
+
+	/**
+	 * The largest absolute entry of a vector.
+	 */
+	private static double norm(double[] v) {
+		double norm = 0;
+
+		for (double x : v) {
+			norm = Math.max(norm, Math.abs(x));
+		}
+
+		return norm;
+	}
+}
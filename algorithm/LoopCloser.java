@@ -0,0 +1,669 @@
+package algorithm;
+
+import java.util.Arrays;
+import java.util.List;
+
+import tool.RamachandranDistribution;
+import chemestry.AminoAcid;
+import dataStructure.ChainTree;
+
+/**
+ * Closes a loop by cyclic coordinate descent. Each iteration sweeps the pairs of phi,
+ * psi bonds of the loop, rotates both bonds of a pair by CCD and lets an acceptance
+ * policy keep or undo the rotation. The run ends when a convergence policy finds the
+ * loop closed or a budget policy stops it. A closed loop is tested for clashes
+ * (optional) and handed to a sink.
+ *
+ * Statistics of all runs (iterations, wall time, rejections) are kept until they are
+ * reset, so closure throughput can be compared between policies.
+ */
+public class LoopCloser {
+
+	/**
+	 * Decides if the CCD rotation of the phi, psi bonds of an amino acid is kept.
+	 */
+	public static interface AcceptancePolicy {
+
+		/**
+		 * @param loop The loop after the rotation.
+		 * @param aminoAcid The amino acid of the bonds.
+		 * @param oldPhi The phi angle before the rotation.
+		 * @param oldPsi The psi angle before the rotation.
+		 * @param newPhi The phi angle after the rotation.
+		 * @param newPsi The psi angle after the rotation.
+		 * @return true if the rotation is kept else false.
+		 */
+		public boolean accept(ChainTree loop, int aminoAcid, double oldPhi, double oldPsi, double newPhi, double newPsi);
+	}
+
+	/**
+	 * Decides if the loop is closed.
+	 */
+	public static interface ConvergencePolicy {
+
+		/**
+		 * @param ccd The CCD computer of the loop.
+		 * @return true if the loop is closed else false.
+		 */
+		public boolean isClosed(CyclicCoordinateDescent ccd);
+	}
+
+	/**
+	 * Decides when a run gives up.
+	 */
+	public static interface BudgetPolicy {
+
+		/**
+		 * Called after every sweep of a run that did not close the loop.
+		 *
+		 * @param iterations The number of sweeps of the run so far.
+		 * @param elapsed The wall time of the run so far in nanoseconds.
+		 * @param rmsd The RMSD of the moving terminal residue to its target.
+		 * @return true if the run must stop else false.
+		 */
+		public boolean isExhausted(int iterations, long elapsed, double rmsd);
+
+		/**
+		 * Called after the policy has stopped a run.
+		 *
+		 * @return true if the run was given up early, before a hard limit that it might
+		 *         have closed the loop within, else false.
+		 */
+		public boolean wasAborted();
+
+		/**
+		 * Called at the end of every run.
+		 *
+		 * @param iterations The number of sweeps of the run.
+		 * @param isClosed Was the loop closed.
+		 */
+		public void finished(int iterations, boolean isClosed);
+	}
+
+	/**
+	 * Receives the closed conformations.
+	 */
+	public static interface ClosureSink {
+
+		/**
+		 * Called with the loop in a closed (and clash free if tested) conformation.
+		 *
+		 * @param loop The closed loop.
+		 * @param iterations The number of sweeps the closure took.
+		 */
+		public void closed(ChainTree loop, int iterations);
+	}
+
+	/**
+	 * Keeps every rotation. A closer with this policy skips the trial moves entirely, so
+	 * it is recognized by identity.
+	 */
+	public static final AcceptancePolicy ALWAYS = new AcceptancePolicy() {
+		@Override
+		public boolean accept(ChainTree loop, int aminoAcid, double oldPhi, double oldPsi, double newPhi, double newPsi) {
+			return true;
+		}
+	};
+
+	/**
+	 * Keeps a rotation by the Metropolis criterion on the Ramachandran probabilities of
+	 * the amino acid before and after the rotation. The log probabilities of each type
+	 * (and neighbour types) are tabulated by bin the first time they are needed.
+	 */
+	public static class RamachandranAcceptance implements AcceptancePolicy {
+		private RamachandranDistribution distribution;	// the distribution of the phi, psi angles
+		private boolean isNeighbourDependent;			// are the neighbours of the amino acid taken into account
+		private double[][] tables;						// the log probability table of each combination of types (null until needed)
+
+		/**
+		 * @param distribution The distribution of the phi, psi angles.
+		 * @param isNeighbourDependent Are the neighbouring amino acids taken into account.
+		 */
+		public RamachandranAcceptance(RamachandranDistribution distribution, boolean isNeighbourDependent) {
+			this.distribution = distribution;
+			this.isNeighbourDependent = isNeighbourDependent;
+			this.tables = new double[isNeighbourDependent ? AminoAcid.count * AminoAcid.count * AminoAcid.count : AminoAcid.count][];
+		}
+
+		@Override
+		public boolean accept(ChainTree loop, int aminoAcid, double oldPhi, double oldPsi, double newPhi, double newPsi) {
+			double[] table = this.table(loop, aminoAcid);
+			double old = table[RamachandranDistribution.bin(oldPhi, oldPsi)];
+
+			// any move out of a bin without data is kept, or the amino acid could never leave it
+			if (old == Double.NEGATIVE_INFINITY)
+				return true;
+
+			double delta = table[RamachandranDistribution.bin(newPhi, newPsi)] - old;
+
+			return delta >= 0 || Math.random() < Math.exp(delta);
+		}
+
+		/**
+		 * The log probability table of an amino acid of the loop.
+		 */
+		private double[] table(ChainTree loop, int aminoAcid) {
+			AminoAcid.Type type = loop.getAminoAcidType(aminoAcid);
+			int index = AminoAcid.typeToInt(type);
+
+			if (this.isNeighbourDependent) {
+				AminoAcid.Type left = loop.getAminoAcidType(aminoAcid-1);
+				AminoAcid.Type right = loop.getAminoAcidType(aminoAcid+1);
+
+				index = (index * AminoAcid.count + AminoAcid.typeToInt(left)) * AminoAcid.count + AminoAcid.typeToInt(right);
+
+				if (this.tables[index] == null) {
+					this.tables[index] = this.distribution.logProbabilityTable(type, left, right);
+				}
+			} else if (this.tables[index] == null) {
+				this.tables[index] = this.distribution.logProbabilityTable(type);
+			}
+
+			return this.tables[index];
+		}
+	}
+
+	/**
+	 * The loop is closed when the RMSD of the moving terminal residue to its target is
+	 * below a threshold.
+	 *
+	 * @param rmsd The threshold.
+	 * @return The convergence policy.
+	 */
+	public static ConvergencePolicy targetRMSD(final double rmsd) {
+		return new ConvergencePolicy() {
+			@Override
+			public boolean isClosed(CyclicCoordinateDescent ccd) {
+				return ccd.targetRMSDistance() < rmsd;
+			}
+		};
+	}
+
+	/**
+	 * A run gives up after a number of sweeps.
+	 *
+	 * @param maxIterations The maximal number of sweeps.
+	 * @return The budget policy.
+	 */
+	public static BudgetPolicy maxIterations(final int maxIterations) {
+		return new BudgetPolicy() {
+			@Override
+			public boolean isExhausted(int iterations, long elapsed, double rmsd) {
+				return iterations >= maxIterations;
+			}
+
+			@Override
+			public boolean wasAborted() {
+				return false;
+			}
+
+			@Override
+			public void finished(int iterations, boolean isClosed) {}
+		};
+	}
+
+	/**
+	 * A run gives up after some wall time.
+	 *
+	 * @param millis The maximal wall time of a run in milliseconds.
+	 * @return The budget policy.
+	 */
+	public static BudgetPolicy maxTime(final long millis) {
+		return new BudgetPolicy() {
+			@Override
+			public boolean isExhausted(int iterations, long elapsed, double rmsd) {
+				return elapsed >= millis * 1000000;
+			}
+
+			@Override
+			public boolean wasAborted() {
+				return false;
+			}
+
+			@Override
+			public void finished(int iterations, boolean isClosed) {}
+		};
+	}
+
+	/**
+	 * Gives up on runs that stall and adapts the number of sweeps to the runs that
+	 * closed the loop.
+	 *
+	 * The progress of a run is the ratio of its RMSD to the RMSD a window of sweeps ago.
+	 * For every closing run longer than the window the worst progress it recovered from
+	 * is remembered, and a run making less progress than nearly all of them (a quantile,
+	 * loosened by a slack) is aborted. Likewise the number of sweeps is limited to a
+	 * multiple of a quantile of the sweeps the closing runs took, but not below a fraction
+	 * of the maximal number of sweeps. Until enough runs have closed only the maximal
+	 * number of sweeps applies.
+	 *
+	 * Since only the runs that closed within the learned limits are learned from, the
+	 * limits would only ever tighten. Every few runs therefore explores: it is given the
+	 * maximal number of sweeps and is not aborted, so runs that need more sweeps or close
+	 * after stalling are learned from as well.
+	 */
+	public static class AdaptiveBudget implements BudgetPolicy {
+		public static int WINDOW = 50;				// the number of sweeps progress is measured over
+		public static int MIN_SAMPLES = 10;			// the number of closing runs needed to adapt
+		public static int MAX_SAMPLES = 200;		// the number of latest closing runs remembered
+		public static double QUANTILE = 0.95;		// the fraction of closing runs the limits allow
+		public static double SLACK = 1.5;			// the factor loosening the learned limits
+		public static double MIN_LIMIT = 0.1;		// the least fraction of the maximal sweeps the learned limit allows
+		public static int EXPLORATION = 20;			// one of this many runs explores with the maximal sweeps
+
+		private int maxIterations;					// the hard limit of sweeps of a run
+		private double[] window = new double[WINDOW];	// the RMSD of the last sweeps of the current run
+		private double worstProgress;				// the worst progress of the current run
+
+		private int samples, next;					// the number of remembered closing runs and the next to replace
+		private int[] sweeps = new int[MAX_SAMPLES];			// the sweeps of the remembered closing runs
+		private int progressSamples, nextProgress;	// the same for the closing runs longer than the window
+		private double[] progress = new double[MAX_SAMPLES];	// the worst progress of the remembered long closing runs
+
+		private int limit;							// the learned limit of sweeps
+		private double threshold = 1;				// the learned limit of progress (1 is no progress)
+
+		private long runs;							// the number of finished runs
+		private boolean isExploring = false;		// is the current run exploring
+		private boolean wasAborted = false;			// was the last run given up early
+		private long aborted;						// the number of runs given up early
+
+		/**
+		 * @param maxIterations The hard limit of sweeps of a run.
+		 */
+		public AdaptiveBudget(int maxIterations) {
+			this.maxIterations = maxIterations;
+			this.limit = maxIterations;
+		}
+
+		@Override
+		public boolean isExhausted(int iterations, long elapsed, double rmsd) {
+			if (iterations == 1) {
+				this.worstProgress = 0;
+			}
+
+			this.wasAborted = false;
+
+			if (iterations >= this.maxIterations)
+				return true;
+
+			// the progress over the window
+			int slot = iterations % this.window.length;
+			boolean isStalled = false;
+
+			if (iterations > this.window.length) {
+				double ratio = rmsd / this.window[slot];
+
+				this.worstProgress = Math.max(this.worstProgress, ratio);
+				isStalled = ratio > this.threshold;
+			}
+
+			this.window[slot] = rmsd;
+
+			if (this.isExploring)
+				return false;
+
+			if (isStalled || iterations >= this.limit) {
+				this.wasAborted = true;
+				this.aborted++;
+			}
+
+			return this.wasAborted;
+		}
+
+		@Override
+		public boolean wasAborted() {
+			return this.wasAborted;
+		}
+
+		@Override
+		public void finished(int iterations, boolean isClosed) {
+			this.runs++;
+			this.isExploring = this.runs % EXPLORATION == 0;
+
+			if (!isClosed)
+				return;
+
+			this.sweeps[this.next] = iterations;
+			this.next = (this.next + 1) % this.sweeps.length;
+			this.samples = Math.min(this.samples + 1, this.sweeps.length);
+
+			if (this.samples >= MIN_SAMPLES) {
+				double limit = Math.min(this.maxIterations, Math.ceil(SLACK * quantile(this.sweeps, this.samples)));
+
+				this.limit = (int) Math.max(Math.ceil(MIN_LIMIT * this.maxIterations), limit);
+			}
+
+			if (iterations > this.window.length) {
+				this.progress[this.nextProgress] = this.worstProgress;
+				this.nextProgress = (this.nextProgress + 1) % this.progress.length;
+				this.progressSamples = Math.min(this.progressSamples + 1, this.progress.length);
+
+				if (this.progressSamples >= MIN_SAMPLES) {
+					this.threshold = 1 - (1 - quantile(this.progress, this.progressSamples)) / SLACK;
+				}
+			}
+		}
+
+		/**
+		 * The maximal number of sweeps of a run currently allowed.
+		 */
+		public int getLimit() {
+			return this.limit;
+		}
+
+		/**
+		 * The least progress over a window currently allowed.
+		 */
+		public double getThreshold() {
+			return this.threshold;
+		}
+
+		/**
+		 * The number of runs given up early by the learned limits.
+		 */
+		public long getAborted() {
+			return this.aborted;
+		}
+
+		/**
+		 * The quantile of the first values.
+		 */
+		private static double quantile(int[] values, int count) {
+			int[] sorted = Arrays.copyOf(values, count);
+			Arrays.sort(sorted);
+
+			return sorted[Math.min(count-1, (int) (QUANTILE * count))];
+		}
+
+		/**
+		 * The quantile of the first values.
+		 */
+		private static double quantile(double[] values, int count) {
+			double[] sorted = Arrays.copyOf(values, count);
+			Arrays.sort(sorted);
+
+			return sorted[Math.min(count-1, (int) (QUANTILE * count))];
+		}
+	}
+
+	private ChainTree loop;								// the loop to close including the target anchor
+	private CyclicCoordinateDescent ccd;				// the rotations towards the target
+	private int[] bonds;								// the phi, psi bonds of the loop in pairs
+
+	private AcceptancePolicy acceptance = ALWAYS;
+	private ConvergencePolicy convergence = targetRMSD(0.08);
+	private BudgetPolicy budget = maxIterations(5000);
+	private ClosureSink sink = null;
+
+	private boolean testClashes = false;				// are closed loops tested for clashes
+	private ChainTree other = null;						// a chain tree the closed loop must not clash with (null if not tested)
+
+	private long runs, closures, clashes, unclosed;		// the outcomes of the runs
+	private long aborted;								// the runs the budget gave up early (not counted as unclosed)
+	private long iterations;							// the number of sweeps of all runs
+	private long wastedIterations;						// the number of sweeps of the runs that did not close the loop
+	private long proposals, rejections;					// the number of CCD rotations of amino acids and rejected ones
+	private long time;									// the wall time of all runs in nanoseconds
+
+
+
+	/**
+	 * Creates a closer with the default policies (accept all rotations, close at a target
+	 * RMSD of 0.08, give up after 5000 sweeps).
+	 *
+	 * @param loop The loop to close ending in the target residue.
+	 * @param bonds The rotatable bonds of the loop as pairs of the phi and psi bond of an amino acid.
+	 */
+	public LoopCloser(ChainTree loop, List<Integer> bonds) {
+		if (bonds.size() % 2 != 0) {
+			throw new IllegalArgumentException("Both phi and psi angles must be rotateable!");
+		}
+
+		this.loop = loop;
+		this.ccd = new CyclicCoordinateDescent(loop, loop.getSubchain(loop.length(), loop.length()));
+		this.bonds = new int[bonds.size()];
+
+		for (int i = 0; i < this.bonds.length; i++) {
+			this.bonds[i] = bonds.get(i);
+		}
+	}
+
+
+
+	/**
+	 * Sets the policy deciding if a rotation is kept.
+	 */
+	public void setAcceptancePolicy(AcceptancePolicy acceptance) {
+		this.acceptance = acceptance;
+	}
+
+	/**
+	 * Sets the policy deciding if the loop is closed.
+	 */
+	public void setConvergencePolicy(ConvergencePolicy convergence) {
+		this.convergence = convergence;
+	}
+
+	/**
+	 * Sets the policy deciding when a run gives up.
+	 */
+	public void setBudgetPolicy(BudgetPolicy budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * The policy deciding when a run gives up.
+	 */
+	public BudgetPolicy getBudgetPolicy() {
+		return this.budget;
+	}
+
+	/**
+	 * Sets the receiver of the closed loops.
+	 */
+	public void setSink(ClosureSink sink) {
+		this.sink = sink;
+	}
+
+	/**
+	 * Sets the clash test of closed loops. A closed loop is tested for clashes with itself
+	 * and with another chain tree. Clashing loops are counted but not handed to the sink.
+	 *
+	 * @param other A chain tree the loop must not clash with or null to disable the clash test.
+	 */
+	public void setClashTest(ChainTree other) {
+		this.testClashes = other != null;
+		this.other = other;
+	}
+
+	/**
+	 * Closes the loop from its current conformation.
+	 *
+	 * @return true if the loop was closed (even if it clashes) else false.
+	 */
+	public boolean close() {
+		long start = System.nanoTime();
+		int iterations = 0;
+		boolean isClosed;
+
+		this.runs++;
+
+		while (true) {
+			this.sweep();
+			iterations++;
+
+			// is loop closed?
+			if (this.convergence.isClosed(this.ccd)) {
+				if (this.testClashes && (this.loop.isClashing() || this.loop.areClashing(this.other))) {
+					this.clashes++;
+				} else {
+					this.closures++;
+
+					if (this.sink != null) {
+						this.sink.closed(this.loop, iterations);
+					}
+				}
+
+				isClosed = true;
+				break;
+			}
+
+			// to many iterations or stalled?
+			if (this.budget.isExhausted(iterations, System.nanoTime() - start, this.ccd.targetRMSDistance())) {
+				if (this.budget.wasAborted()) {
+					this.aborted++;
+				} else {
+					this.unclosed++;
+				}
+
+				this.wastedIterations += iterations;
+
+				isClosed = false;
+				break;
+			}
+		}
+
+		this.budget.finished(iterations, isClosed);
+
+		this.iterations += iterations;
+		this.time += System.nanoTime() - start;
+
+		return isClosed;
+	}
+
+	/**
+	 * Rotates the phi, psi bonds of every amino acid of the loop by CCD. A rejected
+	 * rotation is undone by rotating both bonds back, while the moving terminal atoms of
+	 * the CCD computer are restored from a mark instead of being read from the loop again.
+	 * Attached energy functions are only notified of the rotations, not of trial moves.
+	 */
+	private void sweep() {
+		for (int i = 0; i < this.bonds.length; i += 2) {
+			int bondPhi = this.bonds[i];
+			int bondPsi = this.bonds[i+1];
+
+			this.proposals++;
+
+			if (this.acceptance == ALWAYS) {
+				this.ccd.step(bondPhi);
+				this.ccd.step(bondPsi);
+				continue;
+			}
+
+			// the angles are maintained in the leaves of the loop
+			double oldPhi = this.loop.getDihedralAngle(bondPhi);
+			double oldPsi = this.loop.getDihedralAngle(bondPsi);
+
+			this.ccd.mark();
+
+			double anglePhi = this.ccd.step(bondPhi);
+			double anglePsi = this.ccd.step(bondPsi);
+
+			// undo the rotation?
+			if (!this.acceptance.accept(this.loop, this.loop.getAminoAcid(bondPhi), oldPhi, oldPsi, this.loop.getDihedralAngle(bondPhi), this.loop.getDihedralAngle(bondPsi))) {
+				this.loop.changeRotationAngle(bondPsi, -anglePsi);
+				this.loop.changeRotationAngle(bondPhi, -anglePhi);
+				this.ccd.rollback();
+
+				this.rejections++;
+			}
+		}
+	}
+
+
+
+	/**
+	 * Resets the statistics of the runs.
+	 */
+	public void resetStatistics() {
+		this.runs = this.closures = this.clashes = this.unclosed = this.aborted = 0;
+		this.iterations = this.wastedIterations = this.proposals = this.rejections = this.time = 0;
+	}
+
+	/**
+	 * The number of runs.
+	 */
+	public long getRuns() {
+		return this.runs;
+	}
+
+	/**
+	 * The number of runs that closed the loop without a clash.
+	 */
+	public long getClosures() {
+		return this.closures;
+	}
+
+	/**
+	 * The number of runs that closed the loop with a clash.
+	 */
+	public long getClashes() {
+		return this.clashes;
+	}
+
+	/**
+	 * The number of runs that did not close the loop within the budget.
+	 */
+	public long getUnclosed() {
+		return this.unclosed;
+	}
+
+	/**
+	 * The number of runs the budget gave up early, eg. because they stalled.
+	 */
+	public long getAborted() {
+		return this.aborted;
+	}
+
+	/**
+	 * The number of sweeps of all runs.
+	 */
+	public long getIterations() {
+		return this.iterations;
+	}
+
+	/**
+	 * The number of sweeps of the runs that did not close the loop (unclosed and aborted).
+	 */
+	public long getWastedIterations() {
+		return this.wastedIterations;
+	}
+
+	/**
+	 * The wall time of all runs in milliseconds.
+	 */
+	public double getTime() {
+		return this.time / 1000000.0;
+	}
+
+	/**
+	 * The number of CCD rotations of amino acids.
+	 */
+	public long getProposals() {
+		return this.proposals;
+	}
+
+	/**
+	 * The number of CCD rotations of amino acids that were undone.
+	 */
+	public long getRejections() {
+		return this.rejections;
+	}
+
+	/**
+	 * The fraction of the CCD rotations of amino acids that were undone.
+	 */
+	public double getRejectionRate() {
+		return (this.proposals == 0) ? 0 : (double) this.rejections / this.proposals;
+	}
+
+	/**
+	 * A summary of the statistics.
+	 */
+	public String getStatistics() {
+		return this.runs + " runs, " + this.closures + " closed, " + this.clashes + " clashing, " + this.unclosed + " unclosed, " + this.aborted + " aborted, " +
+			   this.iterations + " iterations, " + this.wastedIterations + " wasted, " + String.format("%.1f", this.getTime()) + " ms, " +
+			   String.format("%.3f", this.getRejectionRate()) + " rejection rate";
+	}
+}
@@ -0,0 +1,119 @@
+package algorithm;
+
+import math.Point3D;
+import math.Vector3D;
+
+import dataStructure.ChainTree;
+
+/**
+ * A solver that rotates the bonds of a loop to bring its moving terminal residue onto
+ * a target residue. It holds the target and a cache of the positions of the moving
+ * terminal atoms, which is only read from the loop again once the loop has been changed
+ * by something else than the solver.
+ */
+public abstract class LoopClosureSolver {
+
+	protected ChainTree loop;						// the loop to close including the target anchor
+	protected Vector3D[] target;					// the position of the target
+	protected double[] position = new double[3];	// buffer for the position of a moving terminal atom
+
+	protected double[] targetPositions;				// the positions of the target atoms (3i, 3i+1, 3i+2 for the i-th atom)
+	protected double[] moving;						// the positions of the moving terminal atoms
+	protected int first;							// the index of the first moving terminal atom
+	protected long modifications = -1;				// the modification count of the loop the moving positions are valid for
+	private double[] marked;						// the positions of the moving terminal atoms at the last mark
+
+
+	/**
+	 * Creates a new solver from the unfolded loop and the target residue.
+	 *
+	 * @param cTree The backbone segment that contains the loop and ends in the target.
+	 * @param target The target residue.
+	 */
+	public LoopClosureSolver(ChainTree cTree, ChainTree target) {
+		this.target = new Vector3D[target.length()*3];
+		this.targetPositions = new double[this.target.length*3];
+		this.moving = new double[this.target.length*3];
+		this.marked = new double[this.target.length*3];
+
+		int i = 0;
+		for (Point3D position : target.getBackboneAtomPositions()) {
+			this.target[i] = position.asVector();
+
+			this.targetPositions[3*i]   = position.x;
+			this.targetPositions[3*i+1] = position.y;
+			this.targetPositions[3*i+2] = position.z;
+
+			i++;
+		}
+
+		// store loop
+		this.loop = cTree;
+		this.first = cTree.getPhi(cTree.length());
+	}
+
+	/**
+	 * Rotates the bonds once towards the target.
+	 *
+	 * @param bonds The bonds of the loop that may be rotated.
+	 */
+	public abstract void iterate(int[] bonds);
+
+	/**
+	 * Determines if the loop is closed.
+	 */
+	public double targetRMSDistance() {
+		this.updateMoving();
+
+		// calculate rmsd
+		double rmsd = 0;
+
+		for (int i = 0; i < this.moving.length; i++) {
+			double d = this.moving[i] - this.targetPositions[i];
+
+			rmsd += d*d;
+		}
+
+		return Math.sqrt(rmsd / this.target.length);
+	}
+
+	/**
+	 * Remembers the positions of the moving terminal atoms in the current conformation
+	 * of the loop.
+	 */
+	public void mark() {
+		this.updateMoving();
+
+		System.arraycopy(this.moving, 0, this.marked, 0, this.moving.length);
+	}
+
+	/**
+	 * Restores the positions of the moving terminal atoms of the last mark after the loop
+	 * has been brought back to the conformation of the mark (e.g. by rejecting a trial
+	 * move), so they need not be read from the loop again.
+	 */
+	public void rollback() {
+		System.arraycopy(this.marked, 0, this.moving, 0, this.moving.length);
+
+		this.modifications = this.loop.getModificationCount();
+	}
+
+	/**
+	 * Reads the positions of the moving terminal atoms from the loop if it has been
+	 * changed since they were computed.
+	 */
+	protected void updateMoving() {
+		if (this.modifications == this.loop.getModificationCount())
+			return;
+
+		for (int i = 0; i < this.moving.length / 3; i++) {
+			this.loop.getAtomPosition(this.first + i, this.position);
+
+			this.moving[3*i]   = this.position[0];
+			this.moving[3*i+1] = this.position[1];
+			this.moving[3*i+2] = this.position[2];
+		}
+
+		this.modifications = this.loop.getModificationCount();
+	}
+}
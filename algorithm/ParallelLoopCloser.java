@@ -0,0 +1,376 @@
+package algorithm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import dataStructure.ChainTree;
+import energyFunction.EnergyFunction;
+import energyFunction.IncrementalEnergyFunction;
+
+/**
+ * Closes a loop from many independent starting conformations in parallel.
+ *
+ * Every worker thread of a work stealing pool lazily creates its own replica of the
+ * loop and a LoopCloser on it, so no tree is shared between threads. The pool may be
+ * shared with other executors, eg. the closers of several loops closed at once. The starts are
+ * split recursively into tasks that idle workers steal. The execution is cancelled
+ * when a target number of closures or a target energy is reached: the remaining starts
+ * are skipped and the running closures give up at their next iteration.
+ */
+public class ParallelLoopCloser {
+
+	/**
+	 * Prepares the loop closer of a replica.
+	 */
+	public static interface ReplicaFactory {
+
+		/**
+		 * Sets the policies of the closer of a replica and creates the energy of its closed
+		 * loops. Called once in each worker thread.
+		 *
+		 * @param replica The replica of the loop.
+		 * @param closer The loop closer of the replica.
+		 * @return The energy function of the replica or null if closed loops are not scored.
+		 */
+		public EnergyFunction configure(ChainTree replica, LoopCloser closer);
+	}
+
+	/**
+	 * A closed conformation.
+	 */
+	public static class Closure {
+		public double[] angles;		// the dihedral angles of the bonds of the loop
+		public double energy;		// the energy of the closed loop (NaN if not scored)
+		public int iterations;		// the number of sweeps the closure took
+
+		public Closure(double[] angles, double energy, int iterations) {
+			this.angles = angles;
+			this.energy = energy;
+			this.iterations = iterations;
+		}
+	}
+
+	private static int SEQUENTIAL_STARTS = 1;		// the number of starts a task closes without splitting
+
+	private ChainTree template;						// a private copy of the loop to create replicas from
+	private List<Integer> bonds;					// the phi, psi bonds of the loop in pairs
+	private ReplicaFactory factory;					// the preparation of each replica
+	private ForkJoinPool pool;						// the worker threads
+	private boolean ownsPool;						// is the pool shut down with the executor
+	private ConcurrentHashMap<Thread,Worker> workers = new ConcurrentHashMap<Thread,Worker>();	// the worker of each thread
+
+	private int targetClosures = Integer.MAX_VALUE;	// the number of closures to stop at
+	private double targetEnergy = Double.NEGATIVE_INFINITY;	// the energy to stop at
+
+	private AtomicBoolean isCancelled = new AtomicBoolean();	// is the current execution cancelled
+	private AtomicInteger closureCount = new AtomicInteger();	// the number of closures of the current execution
+	private AtomicInteger abortCount = new AtomicInteger();		// the number of runs of the current execution the budget gave up early
+	private List<Closure> closures;					// the closures of the current execution
+	private long time;								// the wall time of the last execution in nanoseconds
+
+
+
+	/**
+	 * Creates an executor with one worker per available processor.
+	 *
+	 * @param loop The loop to close ending in the target residue.
+	 * @param bonds The rotatable bonds of the loop as pairs of the phi and psi bond of an amino acid.
+	 * @param factory The preparation of each replica.
+	 */
+	public ParallelLoopCloser(ChainTree loop, List<Integer> bonds, ReplicaFactory factory) {
+		this(loop, bonds, factory, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates an executor with its own pool of worker threads.
+	 *
+	 * @param loop The loop to close ending in the target residue.
+	 * @param bonds The rotatable bonds of the loop as pairs of the phi and psi bond of an amino acid.
+	 * @param factory The preparation of each replica.
+	 * @param threads The number of worker threads.
+	 */
+	public ParallelLoopCloser(ChainTree loop, List<Integer> bonds, ReplicaFactory factory, int threads) {
+		this(loop, bonds, factory, createPool(threads));
+
+		this.ownsPool = true;
+	}
+
+	/**
+	 * Creates an executor on a shared pool of worker threads. The pool is not shut down
+	 * with the executor.
+	 *
+	 * @param loop The loop to close ending in the target residue.
+	 * @param bonds The rotatable bonds of the loop as pairs of the phi and psi bond of an amino acid.
+	 * @param factory The preparation of each replica.
+	 * @param pool The worker threads.
+	 */
+	public ParallelLoopCloser(ChainTree loop, List<Integer> bonds, ReplicaFactory factory, ForkJoinPool pool) {
+		this.template = loop.getSubchain(1, loop.length());
+		this.bonds = new ArrayList<Integer>(bonds);
+		this.factory = factory;
+		this.pool = pool;
+		this.ownsPool = false;
+	}
+
+	/**
+	 * Creates a pool of worker threads.
+	 */
+	private static ForkJoinPool createPool(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one thread is needed!");
+		}
+
+		return new ForkJoinPool(threads);
+	}
+
+
+
+	/**
+	 * Stops an execution when a number of closures have been found.
+	 *
+	 * @param targetClosures The number of closures.
+	 */
+	public void setTargetClosures(int targetClosures) {
+		this.targetClosures = targetClosures;
+	}
+
+	/**
+	 * Stops an execution when a closure with at most an energy has been found.
+	 *
+	 * @param targetEnergy The energy.
+	 */
+	public void setTargetEnergy(double targetEnergy) {
+		this.targetEnergy = targetEnergy;
+	}
+
+	/**
+	 * Closes the loop from each of the starting conformations until all are done or the
+	 * execution is cancelled.
+	 *
+	 * @param starts The dihedral angles of the bonds of the loop in each starting conformation.
+	 * @return The closures in the order they were found.
+	 */
+	public List<Closure> close(List<double[]> starts) {
+		long start = System.nanoTime();
+
+		this.isCancelled.set(false);
+		this.closureCount.set(0);
+		this.abortCount.set(0);
+		this.closures = Collections.synchronizedList(new ArrayList<Closure>());
+
+		this.pool.invoke(new CloseTask(starts, 0, starts.size()));
+
+		this.time = System.nanoTime() - start;
+
+		return new ArrayList<Closure>(this.closures);
+	}
+
+	/**
+	 * Cancels the current execution.
+	 */
+	public void cancel() {
+		this.isCancelled.set(true);
+	}
+
+	/**
+	 * The number of closures of the last execution.
+	 */
+	public int getClosures() {
+		return this.closureCount.get();
+	}
+
+	/**
+	 * The number of runs of the last execution the budget gave up early (see LoopCloser.getAborted).
+	 */
+	public int getAborted() {
+		return this.abortCount.get();
+	}
+
+	/**
+	 * The wall time of the last execution in milliseconds.
+	 */
+	public double getTime() {
+		return this.time / 1000000.0;
+	}
+
+	/**
+	 * The throughput of the last execution.
+	 *
+	 * @return The number of closures per second.
+	 */
+	public double getClosuresPerSecond() {
+		return (this.time == 0) ? 0 : this.closureCount.get() / (this.time / 1000000000.0);
+	}
+
+	/**
+	 * A summary of the statistics of the workers since their creation.
+	 */
+	public String getStatistics() {
+		long runs = 0, closures = 0, clashes = 0, unclosed = 0, aborted = 0, iterations = 0, proposals = 0, rejections = 0;
+
+		for (Worker worker : this.workers.values()) {
+			runs += worker.closer.getRuns();
+			closures += worker.closer.getClosures();
+			clashes += worker.closer.getClashes();
+			unclosed += worker.closer.getUnclosed();
+			aborted += worker.closer.getAborted();
+			iterations += worker.closer.getIterations();
+			proposals += worker.closer.getProposals();
+			rejections += worker.closer.getRejections();
+		}
+
+		return runs + " runs, " + closures + " closed, " + clashes + " clashing, " + unclosed + " unclosed, " + aborted + " aborted, " +
+			   iterations + " iterations, " + this.workers.size() + " workers, " +
+			   String.format("%.3f", (proposals == 0) ? 0 : (double) rejections / proposals) + " rejection rate, " +
+			   String.format("%.1f", this.getClosuresPerSecond()) + " closures/s";
+	}
+
+	/**
+	 * Detaches the energy functions from the replicas and stops the worker threads unless
+	 * the pool is shared. The executor can not be used afterwards.
+	 */
+	public void shutdown() {
+		if (this.ownsPool) {
+			this.pool.shutdown();
+		}
+
+		for (Worker worker : this.workers.values()) {
+			if (worker.energyFunction instanceof IncrementalEnergyFunction) {
+				worker.replica.detach((IncrementalEnergyFunction) worker.energyFunction);
+			}
+		}
+
+		this.workers.clear();
+	}
+
+	/**
+	 * The worker of the current thread, created the first time the thread closes a loop.
+	 */
+	private Worker getWorker() {
+		Worker worker = this.workers.get(Thread.currentThread());
+
+		if (worker == null) {
+			worker = new Worker();
+			this.workers.put(Thread.currentThread(), worker);
+		}
+
+		return worker;
+	}
+
+	/**
+	 * The replica and loop closer of a worker thread.
+	 */
+	private class Worker implements LoopCloser.ClosureSink {
+		ChainTree replica;
+		LoopCloser closer;
+		EnergyFunction energyFunction;
+
+		Worker() {
+			synchronized (template) {
+				this.replica = template.getSubchain(1, template.length());
+			}
+
+			this.closer = new LoopCloser(this.replica, bonds);
+			this.energyFunction = factory.configure(this.replica, this.closer);
+			this.closer.setSink(this);
+
+			// give up as soon as the execution is cancelled
+			final LoopCloser.BudgetPolicy budget = this.closer.getBudgetPolicy();
+
+			this.closer.setBudgetPolicy(new LoopCloser.BudgetPolicy() {
+				private boolean wasCancelled;		// was the run stopped by the cancellation
+
+				@Override
+				public boolean isExhausted(int iterations, long elapsed, double rmsd) {
+					this.wasCancelled = isCancelled.get();
+
+					return this.wasCancelled || budget.isExhausted(iterations, elapsed, rmsd);
+				}
+
+				@Override
+				public boolean wasAborted() {
+					return !this.wasCancelled && budget.wasAborted();
+				}
+
+				@Override
+				public void finished(int iterations, boolean isClosed) {
+					budget.finished(iterations, isClosed);
+				}
+			});
+		}
+
+		/**
+		 * Closes the loop from a starting conformation.
+		 */
+		void close(double[] start) {
+			for (int k = 0; k < start.length; k++) {
+				this.replica.setRotationAngle(bonds.get(k), start[k]);
+			}
+
+			long aborted = this.closer.getAborted();
+
+			this.closer.close();
+
+			if (this.closer.getAborted() > aborted) {
+				abortCount.incrementAndGet();
+			}
+		}
+
+		@Override
+		public void closed(ChainTree loop, int iterations) {
+			double[] angles = new double[bonds.size()];
+
+			for (int k = 0; k < angles.length; k++) {
+				angles[k] = loop.getDihedralAngle(bonds.get(k));
+			}
+
+			double energy = (this.energyFunction == null) ? Double.NaN : this.energyFunction.compute();
+
+			closures.add(new Closure(angles, energy, iterations));
+
+			// stop the execution?
+			if (closureCount.incrementAndGet() >= targetClosures || energy <= targetEnergy) {
+				isCancelled.set(true);
+			}
+		}
+	}
+
+	/**
+	 * Closes a range of the starts, splitting it between idle workers.
+	 */
+	private class CloseTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private List<double[]> starts;
+		private int from, to;			// the range of starts to close
+
+		CloseTask(List<double[]> starts, int from, int to) {
+			this.starts = starts;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.to - this.from <= SEQUENTIAL_STARTS) {
+				Worker worker = getWorker();
+
+				for (int i = this.from; i < this.to && !isCancelled.get(); i++) {
+					worker.close(this.starts.get(i));
+				}
+
+				return;
+			}
+
+			int middle = (this.from + this.to) / 2;
+
+			invokeAll(new CloseTask(this.starts, this.from, middle), new CloseTask(this.starts, middle, this.to));
+		}
+	}
+}
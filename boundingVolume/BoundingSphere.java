@@ -0,0 +1,151 @@
+package boundingVolume;
+
+import math.matrix.TransformationMatrix;
+
+/**
+ * A bounding sphere. It is a coarser volume than the line segment swept sphere
+ * but much cheaper to transform and test for overlap, so it is used for screening
+ * before the full volumes are tested.
+ */
+public class BoundingSphere implements BoundingVolume {
+
+	public double x, y, z;	// the center of the sphere
+	public double radius;	// the radius of the sphere
+
+	/**
+	 * Creates a new bounding sphere.
+	 *
+	 * @param x The first coordinate of the center.
+	 * @param y The second coordinate of the center.
+	 * @param z The third coordinate of the center.
+	 * @param radius The radius of the sphere.
+	 */
+	public BoundingSphere(double x, double y, double z, double radius) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.radius = radius;
+	}
+
+	/**
+	 * Creates the bounding sphere of a line segment swept sphere.
+	 *
+	 * @param volume The volume to enclose.
+	 */
+	public BoundingSphere(LinesegmentSweptSphere volume) {
+		double x1 = volume.volume.p1.x(), y1 = volume.volume.p1.y(), z1 = volume.volume.p1.z();
+		double x2 = volume.volume.p2.x(), y2 = volume.volume.p2.y(), z2 = volume.volume.p2.z();
+
+		this.x = (x1 + x2) / 2;
+		this.y = (y1 + y2) / 2;
+		this.z = (z1 + z2) / 2;
+		this.radius = Math.sqrt((x2-x1)*(x2-x1) + (y2-y1)*(y2-y1) + (z2-z1)*(z2-z1)) / 2 + volume.volume.rad;
+	}
+
+	@Override
+	public boolean isOverlaping(BoundingVolume other) {
+		if (other instanceof BoundingSphere) {
+			BoundingSphere otherSphere = (BoundingSphere) other;
+
+			double dx = this.x - otherSphere.x;
+			double dy = this.y - otherSphere.y;
+			double dz = this.z - otherSphere.z;
+			double r = this.radius + otherSphere.radius;
+
+			return dx*dx + dy*dy + dz*dz < r*r;
+
+		} else if (other instanceof Empty) {
+			return false;
+
+		} else {
+			throw new IllegalArgumentException("Unsupported bounding volume!");
+		}
+	}
+
+	/**
+	 * Does the sphere overlap the other sphere transformed by the given transformation.
+	 * This is equal to isOverlaping(other.transform(transformation)) but without allocation.
+	 *
+	 * @param other The sphere to test for overlap with.
+	 * @param transformation The transformation of the other sphere into the coordinate system of this.
+	 * @return true if the spheres overlap else false.
+	 */
+	public boolean isOverlaping(BoundingSphere other, TransformationMatrix transformation) {
+		double r = this.radius + other.radius;
+
+		return this.distanceSquared(other, transformation) < r*r;
+	}
+
+	/**
+	 * The smallest distance between any two points of the spheres.
+	 *
+	 * @param other The other sphere.
+	 * @param transformation The transformation of the other sphere into the coordinate system of this.
+	 * @return The distance between the spheres (0 if they overlap).
+	 */
+	public double distance(BoundingSphere other, TransformationMatrix transformation) {
+		return Math.max(0, Math.sqrt(this.distanceSquared(other, transformation)) - this.radius - other.radius);
+	}
+
+	@Override
+	public float volume() {
+		return (float) (4.0 / 3.0 * Math.PI * this.radius * this.radius * this.radius);
+	}
+
+	@Override
+	public BoundingVolume combine(BoundingVolume other) {
+		if (other instanceof BoundingSphere) {
+			BoundingSphere otherSphere = (BoundingSphere) other;
+
+			double dx = otherSphere.x - this.x;
+			double dy = otherSphere.y - this.y;
+			double dz = otherSphere.z - this.z;
+			double d = Math.sqrt(dx*dx + dy*dy + dz*dz);
+
+			// one sphere contains the other
+			if (d + otherSphere.radius <= this.radius)
+				return this;
+
+			if (d + this.radius <= otherSphere.radius)
+				return otherSphere;
+
+			// the sphere through the two outermost points
+			double radius = (d + this.radius + otherSphere.radius) / 2;
+			double t = (radius - this.radius) / d;
+
+			return new BoundingSphere(this.x + dx * t, this.y + dy * t, this.z + dz * t, radius);
+
+		} else if (other instanceof Empty) {
+			return this;
+
+		} else {
+			throw new IllegalArgumentException("Unsupported bounding volume!");
+		}
+	}
+
+	@Override
+	public BoundingVolume transform(TransformationMatrix transformationMatrix) {
+		TransformationMatrix m = transformationMatrix;
+
+		return new BoundingSphere(m.a11*this.x + m.a12*this.y + m.a13*this.z + m.a14,
+								  m.a21*this.x + m.a22*this.y + m.a23*this.z + m.a24,
+								  m.a31*this.x + m.a32*this.y + m.a33*this.z + m.a34,
+								  this.radius);
+	}
+
+	@Override
+	public String toString() {
+		return "Sphere[(" + this.x + ", " + this.y + ", " + this.z + "), " + this.radius + "]";
+	}
+
+	/**
+	 * The squared distance between the center of this sphere and the transformed center of the other.
+	 */
+	private double distanceSquared(BoundingSphere other, TransformationMatrix m) {
+		double dx = this.x - (m.a11*other.x + m.a12*other.y + m.a13*other.z + m.a14);
+		double dy = this.y - (m.a21*other.x + m.a22*other.y + m.a23*other.z + m.a24);
+		double dz = this.z - (m.a31*other.x + m.a32*other.y + m.a33*other.z + m.a34);
+
+		return dx*dx + dy*dy + dz*dz;
+	}
+}
@@ -30,6 +30,17 @@ public class LinesegmentSweptSphere implements BoundingVolume {
 		this(new Capsule(new Vector(0,0,0), new Vector(line.x, line.y, line.z), radius));
 	}
 
+	/**
+	 * Create a new line segment swept sphere bounding volume between two points.
+	 * 
+	 * @param start The start of the line of the volume.
+	 * @param end The end of the line of the volume.
+	 * @param radius The radius around the line.
+	 */
+	public LinesegmentSweptSphere(Point3D start, Point3D end, double radius) {
+		this(new Capsule(new Vector(start.x, start.y, start.z), new Vector(end.x, end.y, end.z), radius));
+	}
+
 	/**
 	 * Creates a line segment swept sphere containing all the points.
 	 * 
@@ -36,6 +36,22 @@ public class AdjustableChainTree extends ChainTree {
 		this.rebalance();
 	}
 
+	/**
+	 * Create a chain tree from its PDB id with or without the side chains.
+	 * 
+	 * @param pdbId The PDB id to create a chain tree for.
+	 * @param sideChains Should the side chains be attached to the tree.
+	 */
+	public AdjustableChainTree(String pdbId, boolean sideChains) {
+		super(pdbId, sideChains);
+
+		// optimise the tree
+		this.lockAndGroupPeptidePlanes();
+		this.lockAndGroupAlphaHelices();
+		this.lockAndGroupBetaSheets();
+		this.rebalance();
+	}
+
 	/**
 	 * Creates a chain tree from an array of chain trees.
 	 * 
@@ -76,6 +92,7 @@ public class AdjustableChainTree extends ChainTree {
 		
 		// copy secondary structure information
 		this.proteinInformation = cTree.proteinInformation;
+		this.copySideChains(cTree, 1);
 		
 		// optimise the tree
 		this.lockAndGroupPeptidePlanes();
@@ -202,6 +219,14 @@ public class AdjustableChainTree extends ChainTree {
 
 		for (int i = node.low; i <= node.high; i++) {
 			points.add(new Point3D(transformationMatrix.a14, transformationMatrix.a24, transformationMatrix.a34));
+			
+			// include the side chain attached to the bond
+			if (this.backboneBonds[i].sideChain != null) {
+				for (Point3D point : this.backboneBonds[i].sideChain.getAtomPositions()) {
+					points.add(transformationMatrix.transform(point));
+				}
+			}
+			
 			transformationMatrix.multR(this.backboneBonds[i].transformationMatrix);
 		}
 		points.add(new Point3D(transformationMatrix.a14, transformationMatrix.a24, transformationMatrix.a34));
@@ -363,6 +388,9 @@ public class AdjustableChainTree extends ChainTree {
 		// update sub chain information
 		a.low = b.low;
 		b.high = d.high;
+		
+		// the node pairs of the last clash test are no longer valid
+		super.resetClashFront();
 
 		// update nodes above the rotated subtree
 		// starts from d as both a and b are ancestors to d
@@ -406,6 +434,9 @@ public class AdjustableChainTree extends ChainTree {
 		// update sub chain information
 		b.high = a.high;
 		a.low = d.low;
+		
+		// the node pairs of the last clash test are no longer valid
+		super.resetClashFront();
 
 		// update nodes above the rotated subtree
 		// starts from d as both a and b are ancestors to d
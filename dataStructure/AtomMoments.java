@@ -0,0 +1,163 @@
+package dataStructure;
+
+import math.Point3D;
+import math.matrix.SymmetricMatrix3x3;
+import math.matrix.TransformationMatrix;
+
+/**
+ * The first and second moments of the backbone atoms covered by a node, alone and 
+ * against a fixed set of target positions. The atom positions are given in the 
+ * coordinate system of the node while the target positions are fixed in the world.
+ *
+ * The moments of two neighbouring sub chains combine through the transformation of
+ * the left sub chain just like the transformation matrices and bounding volumes of
+ * the nodes, so the moments of the entire chain are maintained in O(log n) per
+ * rotation. They are sufficient for the root mean square deviation after optimal
+ * superposition (Kabsch) and for the gyration tensor.
+ */
+public class AtomMoments {
+
+	public int count;								// the number of atoms
+	public double[] sum = new double[3];			// the sum of the atom positions
+	public double[] sumOuter = new double[6];		// the sum of the outer products of the atom positions (upper triangle)
+	public double[] targetSum = new double[3];		// the sum of the target positions
+	public double targetSumSquares;					// the sum of the squared lengths of the target positions
+	public double[] cross = new double[9];			// the sum of the outer products of the atom and target positions (row major)
+
+
+
+	/**
+	 * Creates empty moments.
+	 */
+	public AtomMoments() {
+		// no atoms
+	}
+
+	/**
+	 * Creates the moments of a single atom at the origin of its coordinate system.
+	 *
+	 * @param target The target position of the atom (the origin if the atom has no target).
+	 */
+	public AtomMoments(Point3D target) {
+		this.count = 1;
+		this.targetSum[0] = target.x;
+		this.targetSum[1] = target.y;
+		this.targetSum[2] = target.z;
+		this.targetSumSquares = target.x*target.x + target.y*target.y + target.z*target.z;
+	}
+
+
+
+	/**
+	 * Sets the moments to the union of the moments of two neighbouring sub chains.
+	 *
+	 * @param left The moments of the left sub chain.
+	 * @param right The moments of the right sub chain.
+	 * @param m The transformation from the coordinate system of the right sub chain into the
+	 * 			coordinate system of the left sub chain.
+	 */
+	public void combine(AtomMoments left, AtomMoments right, TransformationMatrix m) {
+		double[] s = right.sum;
+		double[] c = right.cross;
+
+		// rotated sum of the right sub chain
+		double rx = m.a11*s[0] + m.a12*s[1] + m.a13*s[2];
+		double ry = m.a21*s[0] + m.a22*s[1] + m.a23*s[2];
+		double rz = m.a31*s[0] + m.a32*s[1] + m.a33*s[2];
+
+		double tx = m.a14, ty = m.a24, tz = m.a34;
+
+		this.count = left.count + right.count;
+
+		this.sum[0] = left.sum[0] + rx + right.count * tx;
+		this.sum[1] = left.sum[1] + ry + right.count * ty;
+		this.sum[2] = left.sum[2] + rz + right.count * tz;
+
+		// R M R^t + R s t^t + t (R s)^t + n t t^t
+		double[] o = right.sumOuter;
+		double n = right.count;
+
+		// the rows of R M
+		double p11 = m.a11*o[0] + m.a12*o[1] + m.a13*o[2], p12 = m.a11*o[1] + m.a12*o[3] + m.a13*o[4], p13 = m.a11*o[2] + m.a12*o[4] + m.a13*o[5];
+		double p21 = m.a21*o[0] + m.a22*o[1] + m.a23*o[2], p22 = m.a21*o[1] + m.a22*o[3] + m.a23*o[4], p23 = m.a21*o[2] + m.a22*o[4] + m.a23*o[5];
+		double p31 = m.a31*o[0] + m.a32*o[1] + m.a33*o[2], p32 = m.a31*o[1] + m.a32*o[3] + m.a33*o[4], p33 = m.a31*o[2] + m.a32*o[4] + m.a33*o[5];
+
+		this.sumOuter[0] = left.sumOuter[0] + p11*m.a11 + p12*m.a12 + p13*m.a13 + rx*tx + tx*rx + n * tx*tx;
+		this.sumOuter[1] = left.sumOuter[1] + p11*m.a21 + p12*m.a22 + p13*m.a23 + rx*ty + tx*ry + n * tx*ty;
+		this.sumOuter[2] = left.sumOuter[2] + p11*m.a31 + p12*m.a32 + p13*m.a33 + rx*tz + tx*rz + n * tx*tz;
+		this.sumOuter[3] = left.sumOuter[3] + p21*m.a21 + p22*m.a22 + p23*m.a23 + ry*ty + ty*ry + n * ty*ty;
+		this.sumOuter[4] = left.sumOuter[4] + p21*m.a31 + p22*m.a32 + p23*m.a33 + ry*tz + ty*rz + n * ty*tz;
+		this.sumOuter[5] = left.sumOuter[5] + p31*m.a31 + p32*m.a32 + p33*m.a33 + rz*tz + tz*rz + n * tz*tz;
+
+		for (int b = 0; b < 3; b++) {
+			double y = right.targetSum[b];
+
+			this.cross[b]   = left.cross[b]   + m.a11*c[b] + m.a12*c[3+b] + m.a13*c[6+b] + tx*y;
+			this.cross[3+b] = left.cross[3+b] + m.a21*c[b] + m.a22*c[3+b] + m.a23*c[6+b] + ty*y;
+			this.cross[6+b] = left.cross[6+b] + m.a31*c[b] + m.a32*c[3+b] + m.a33*c[6+b] + tz*y;
+
+			this.targetSum[b] = left.targetSum[b] + y;
+		}
+
+		this.targetSumSquares = left.targetSumSquares + right.targetSumSquares;
+	}
+
+	/**
+	 * Computes the root mean square deviation between the atoms and their targets after
+	 * optimal superposition.
+	 *
+	 * @return The superposition RMSD.
+	 */
+	public double superpositionRMSD() {
+		double n = this.count;
+
+		// cross-covariance of the centered positions
+		double[] h = new double[9];
+
+		for (int a = 0; a < 3; a++) {
+			for (int b = 0; b < 3; b++) {
+				h[3*a+b] = this.cross[3*a+b] - this.sum[a] * this.targetSum[b] / n;
+			}
+		}
+
+		// the spread of the centered positions
+		double e = this.sumOuter[0] + this.sumOuter[3] + this.sumOuter[5] - (this.sum[0]*this.sum[0] + this.sum[1]*this.sum[1] + this.sum[2]*this.sum[2]) / n +
+				   this.targetSumSquares - (this.targetSum[0]*this.targetSum[0] + this.targetSum[1]*this.targetSum[1] + this.targetSum[2]*this.targetSum[2]) / n;
+
+		// the singular values of the cross-covariance (a reflection is not allowed)
+		double[] eigenvalues = SymmetricMatrix3x3.transposeTimes(h).eigenvalues();
+		double det = h[0]*(h[4]*h[8] - h[5]*h[7]) - h[1]*(h[3]*h[8] - h[5]*h[6]) + h[2]*(h[3]*h[7] - h[4]*h[6]);
+
+		double singularValues = Math.sqrt(Math.max(0, eigenvalues[0])) +
+								Math.sqrt(Math.max(0, eigenvalues[1])) +
+								((det < 0) ? -1 : 1) * Math.sqrt(Math.max(0, eigenvalues[2]));
+
+		return Math.sqrt(Math.max(0, e - 2 * singularValues) / n);
+	}
+	
+	/**
+	 * Computes the gyration tensor of the atoms, the covariance of their positions.
+	 * 
+	 * @return The gyration tensor in the coordinate system of the moments.
+	 */
+	public SymmetricMatrix3x3 gyrationTensor() {
+		double n = this.count;
+		double x = this.sum[0] / n, y = this.sum[1] / n, z = this.sum[2] / n;
+		
+		return new SymmetricMatrix3x3(this.sumOuter[0] / n - x*x, 
+									  this.sumOuter[1] / n - x*y, 
+									  this.sumOuter[2] / n - x*z,
+									  this.sumOuter[3] / n - y*y, 
+									  this.sumOuter[4] / n - y*z,
+									  this.sumOuter[5] / n - z*z);
+	}
+	
+	/**
+	 * Computes the radius of gyration of the atoms.
+	 * 
+	 * @return The root mean square distance of the atoms from their center.
+	 */
+	public double radiusOfGyration() {
+		return Math.sqrt(Math.max(0, this.gyrationTensor().trace()));
+	}
+}
@@ -4,6 +4,8 @@ import math.Point3D;
 import math.matrix.TransformationMatrix;
 
 
+import boundingVolume.BoundingSphere;
+import boundingVolume.BoundingVolume;
 import boundingVolume.LinesegmentSweptSphere;
 
 
@@ -11,6 +13,10 @@ public class CTLeaf extends CTNode {
 	
 	public static double atomRadius = 1.7;	// the radius of the atom where this bond starts
 	private double angle;					// the rotation angle of this bond
+	public double torsion;					// the dihedral angle about this bond in (-pi, pi]
+	
+	public SideChain sideChain;				// the side chain attached to the start of this bond (null if none)
+	private BoundingVolume bondVolume;		// the bounding volume of the bond alone
 	
 	
 	
@@ -28,7 +34,8 @@ public class CTLeaf extends CTNode {
 		this.transformationMatrix = new TransformationMatrix(relativePosition.x, relativePosition.y, relativePosition.z);
 		
 		// bounding volume
-		this.boundingVolume = new LinesegmentSweptSphere(relativePosition, atomRadius/2);
+		this.bondVolume = new LinesegmentSweptSphere(relativePosition, atomRadius/2);
+		this.updateBoundingVolume();
 	}
 	
 	
@@ -40,10 +47,63 @@ public class CTLeaf extends CTNode {
 	 */
 	public void rotate(double angle) {
 		this.angle += angle;
+		this.torsion = Math.IEEEremainder(this.torsion + angle, 2 * Math.PI);
 		
 		transformationMatrix.rotate(this.angle);
 	}
 	
+	/**
+	 * Attaches a side chain to the start of this bond.
+	 * 
+	 * @param sideChain The side chain in the coordinate system of this bond.
+	 */
+	public void setSideChain(SideChain sideChain) {
+		this.sideChain = sideChain;
+		this.updateBoundingVolume();
+	}
+	
+	/**
+	 * Updates the bounding volumes to cover both the bond and the side chain.
+	 */
+	public void updateBoundingVolume() {
+		this.boundingVolume = (this.sideChain == null) ? this.bondVolume : this.bondVolume.combine(this.sideChain.boundingVolume);
+		this.coarseVolume = new BoundingSphere((LinesegmentSweptSphere) this.boundingVolume);
+	}
+	
+	/**
+	 * Determines if this leaf clashes with the other. Without side chains this is just
+	 * an overlap test of the bonds, otherwise the backbone and the side chain atoms of
+	 * both leaves are tested against each other.
+	 * 
+	 * @param other The other leaf.
+	 * @param transformation The transformation from the other leafs coordinate system into this.
+	 * @return true if the leaves clash else false.
+	 */
+	public boolean isClashing(CTLeaf other, TransformationMatrix transformation) {
+		// the combined volumes must overlap (this also respects replaced volumes)
+		if (!this.boundingVolume.isOverlaping(other.boundingVolume.transform(transformation)))
+			return false;
+		
+		if (this.sideChain == null && other.sideChain == null)
+			return true;
+		
+		BoundingVolume otherBond = other.bondVolume.transform(transformation);
+		
+		// backbone against backbone
+		if (this.bondVolume.isOverlaping(otherBond))
+			return true;
+		
+		// side chains against backbone
+		if (this.sideChain != null && this.sideChain.isClashing(otherBond, new TransformationMatrix()))
+			return true;
+		
+		if (other.sideChain != null && other.sideChain.isClashing(this.bondVolume, transformation))
+			return true;
+		
+		// side chain against side chain
+		return this.sideChain != null && other.sideChain != null && this.sideChain.isClashing(other.sideChain, transformation);
+	}
+	
 	@Override
 	public String toString() {
 		return "" + this.low;
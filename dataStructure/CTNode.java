@@ -1,6 +1,7 @@
 package dataStructure;
 
 import math.matrix.TransformationMatrix;
+import boundingVolume.BoundingSphere;
 import boundingVolume.BoundingVolume;
 import boundingVolume.LinesegmentSweptSphere;
 
@@ -8,7 +9,9 @@ public class CTNode {
 	
 	public CTNode left, right, parent;					// connected nodes in the tree
 	public BoundingVolume boundingVolume;				// the bounding volume of the node
+	public BoundingSphere coarseVolume;					// the coarse bounding volume of the node used for screening
 	public TransformationMatrix transformationMatrix;	// the nodes transformation matrix
+	public AtomMoments moments;							// the moments of the covered atoms against a target (null if no target)
 	public int height;									// the height of the nodes subtree
 	public int low, high;								// the lowest and highest covered backbone bond
 
@@ -90,6 +93,26 @@ public class CTNode {
 		
 		// bounding volume
 		this.boundingVolume = this.left.boundingVolume.combine(this.right.boundingVolume.transform(this.left.transformationMatrix));
+		this.coarseVolume = (BoundingSphere) this.left.coarseVolume.combine(this.right.coarseVolume.transform(this.left.transformationMatrix));
+		
+		// atom moments
+		this.updateMoments();
+	}
+	
+	/**
+	 * Updates the atom moments stored in the node from its children.
+	 */
+	public void updateMoments() {
+		if (this.left.moments == null || this.right.moments == null) {
+			this.moments = null;
+			return;
+		}
+		
+		if (this.moments == null) {
+			this.moments = new AtomMoments();
+		}
+		
+		this.moments.combine(this.left.moments, this.right.moments, this.left.transformationMatrix);
 	}
 	
 	@Override
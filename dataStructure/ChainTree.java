@@ -1,10 +1,12 @@
 package dataStructure;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import chemestry.AminoAcid;
@@ -15,12 +17,17 @@ import chemestry.AminoAcid.Type;
 import math.Point3D;
 import math.Tuple2;
 import math.Vector3D;
+import math.matrix.SymmetricMatrix3x3;
 import math.matrix.TransformationMatrix;
 
+import boundingVolume.BoundingSphere;
 import boundingVolume.BoundingVolume;
 
 import edu.math.Vector;
 
+import energyFunction.DifferentiableEnergy;
+import energyFunction.IncrementalEnergyFunction;
+
 import tool.PDBParser;
 
 
@@ -38,6 +45,25 @@ public class ChainTree {
 	private Set<Integer> rotatedBonds = new HashSet<Integer>();		// the last rotated bond
 	private int lowestRotatedBond = Integer.MAX_VALUE;				// the index of the leftmost rotated bond
 	
+	private long coarseTests = 0;									// the number of overlap tests screened on the coarse volumes
+	private long fineTests = 0;										// the number of overlap tests that reached the full volumes
+	
+	private List<FrontPair> front = null;							// the node pairs where the last self-clash test terminated
+	private boolean wasClashing = false;							// the result of the last self-clash test
+	
+	private static int WITNESS_CACHE_SIZE = 4;						// the number of clashing leaf pairs to remember
+	private LinkedList<ClashWitness> witnesses = new LinkedList<ClashWitness>(); // the most recent clashing leaf pairs first
+	private long witnessHits = 0;									// the number of clash checks answered by a witness
+	private long witnessMisses = 0;									// the number of clash checks that needed the full test
+	
+	private List<IncrementalEnergyFunction> energyFunctions = new ArrayList<IncrementalEnergyFunction>(); // the energy functions notified of rotations
+	private List<Tuple2<Integer,Double>> proposedRotations = null;	// the rotations since the proposal of a trial move
+	private long modifications = 0;									// the number of changes of the conformation
+	
+	private AtomMoments lastAtomMoments = null;						// the moments of the atom after the last bond (null if not maintained)
+	private boolean hasSuperpositionTarget = false;					// are the moments against a superposition target
+	private AtomMoments chainMoments = new AtomMoments();			// the moments of the entire chain
+	
 	
 
 	/**
@@ -46,12 +72,33 @@ public class ChainTree {
 	 * @param pdbId The PDB id to create a chain tree for.
 	 */
 	public ChainTree(String pdbId) {
-		this(new PDBParser(pdbId).backboneAtomPositions);
+		this(new PDBParser(pdbId), false);
+	}
+	
+	/**
+	 * Create a chain tree from its PDB id with or without the side chains.
+	 * 
+	 * @param pdbId The PDB id to create a chain tree for.
+	 * @param sideChains Should the side chains be attached to the tree.
+	 */
+	public ChainTree(String pdbId, boolean sideChains) {
+		this(new PDBParser(pdbId), sideChains);
+	}
+	
+	/**
+	 * Create a chain tree from a parsed PDB file with or without the side chains.
+	 * 
+	 * @param parser The parsed PDB file.
+	 * @param sideChains Should the side chains be attached to the tree.
+	 */
+	protected ChainTree(PDBParser parser, boolean sideChains) {
+		this(parser.backboneAtomPositions);
 		
-		PDBParser parser = new PDBParser(pdbId); // we have to parse the file as java require that the first statement is a constructor
-												 // call and i don't want to make a static method.
-
 		this.proteinInformation = parser.proteinInformation;
+		
+		if (sideChains) {
+			this.attachSideChains(parser.sideChainAtomPositions);
+		}
 	}
 	
 	/**
@@ -146,6 +193,13 @@ public class ChainTree {
 		// lock the end leafs as rotation about them is nonsense
 		this.backboneBonds[0].isLocked = true;
 		this.backboneBonds[this.backboneBonds.length-1].isLocked = true;
+		
+		// store the dihedral angles in the leafs so they can be maintained by the rotations
+		int i = 0;
+		for (double angle : this.getDihedralAngles()) {
+			this.backboneBonds[i].torsion = angle;
+			i++;
+		}
 	}	
 	
 	
@@ -212,6 +266,185 @@ public class ChainTree {
 		return points;
 	}
 
+	/**
+	 * Returns the absolute position of a single backbone atom. The position is composed
+	 * from at most O(log n) node transformations.
+	 * 
+	 * @param j The index of the atom (the atom at the start of the j-th bond).
+	 * @return The position of the atom.
+	 */
+	public Point3D getAtomPosition(int j) {
+		double[] position = new double[3];
+		
+		this.getAtomPosition(j, position);
+		
+		return new Point3D(position[0], position[1], position[2]);
+	}
+	
+	/**
+	 * Computes the absolute position of a single backbone atom without allocation by
+	 * transforming the atom up through the tree from the leaf where it is the origin.
+	 * 
+	 * @param j The index of the atom (the atom at the start of the j-th bond).
+	 * @param position The array to store the position of the atom in.
+	 * @require 0 <= j <= this.backboneBonds.length
+	 */
+	public void getAtomPosition(int j, double[] position) {
+		if (j < 0 || j > this.backboneBonds.length) {
+			throw new IllegalArgumentException("No atom with index " + j + "!");
+		}
+		
+		double x, y, z;
+		CTNode node;
+		
+		// the last atom is not the origin of any leaf but is placed by the root
+		if (j == this.backboneBonds.length) {
+			x = this.root.transformationMatrix.a14;
+			y = this.root.transformationMatrix.a24;
+			z = this.root.transformationMatrix.a34;
+			node = this.root;
+		} else {
+			x = y = z = 0;
+			node = this.backboneBonds[j];
+		}
+		
+		// transform into the coordinate system of the first bond
+		while (node.parent != null) {
+			if (node == node.parent.right) {
+				TransformationMatrix m = node.parent.left.transformationMatrix;
+				
+				double tx = m.a11*x + m.a12*y + m.a13*z + m.a14;
+				double ty = m.a21*x + m.a22*y + m.a23*z + m.a24;
+				double tz = m.a31*x + m.a32*y + m.a33*z + m.a34;
+				
+				x = tx; y = ty; z = tz;
+			}
+			
+			node = node.parent;
+		}
+		
+		// transform into the world
+		TransformationMatrix m = this.worldTransformation;
+		
+		position[0] = m.a11*x + m.a12*y + m.a13*z + m.a14;
+		position[1] = m.a21*x + m.a22*y + m.a23*z + m.a24;
+		position[2] = m.a31*x + m.a32*y + m.a33*z + m.a34;
+	}
+	
+	/**
+	 * Returns the vector from the first to the last backbone atom, which is the 
+	 * translation of the root transformation in world orientation.
+	 * 
+	 * @return The end-to-end vector of the backbone.
+	 */
+	public Vector3D getEndToEndVector() {
+		TransformationMatrix m = this.worldTransformation;
+		TransformationMatrix r = this.root.transformationMatrix;
+		
+		return new Vector3D(m.a11*r.a14 + m.a12*r.a24 + m.a13*r.a34,
+							m.a21*r.a14 + m.a22*r.a24 + m.a23*r.a34,
+							m.a31*r.a14 + m.a32*r.a24 + m.a33*r.a34);
+	}
+
+	/**
+	 * Computes the absolute positions of all backbone atoms by a single walk along the 
+	 * leaves.
+	 * 
+	 * @param positions The array to store the positions in. The position of the i-th atom 
+	 * 					is stored at the indices 3i, 3i+1 and 3i+2.
+	 * @require positions.length >= 3 * (this.backboneBonds.length + 1)
+	 */
+	public void getBackboneAtomPositions(double[] positions) {
+		TransformationMatrix transformationMatrix = new TransformationMatrix(this.worldTransformation);
+		
+		for (int i = 0; i <= this.backboneBonds.length; i++) {
+			positions[3*i]   = transformationMatrix.a14;
+			positions[3*i+1] = transformationMatrix.a24;
+			positions[3*i+2] = transformationMatrix.a34;
+			
+			if (i < this.backboneBonds.length) {
+				transformationMatrix.multR(this.backboneBonds[i].transformationMatrix);
+			}
+		}
+	}
+	
+	/**
+	 * Computes the gradient of an energy with respect to the dihedral angle of each bond.
+	 * 
+	 * A rotation of the k-th bond by d turns every atom a after the bond about the bond 
+	 * axis u through the atom p_k, so the derivative of the energy is 
+	 * u . sum_a (p_a - p_k) x g_a = u . (T - p_k x F), where F is the sum of the atom 
+	 * gradients g_a and T the sum of their torques p_a x g_a over the moved atoms. Both 
+	 * sums are accumulated from the end of the chain, so all derivatives are computed in 
+	 * O(n) from a single computation of the atom gradient.
+	 * 
+	 * @param energy The energy function.
+	 * @return The derivative of the energy with respect to the angle of each bond (as 
+	 * 		   changed by changeRotationAngle).
+	 */
+	public double[] energyGradient(DifferentiableEnergy energy) {
+		int atoms = this.backboneBonds.length + 1;
+		double[] positions = new double[3 * atoms];
+		double[] atomGradient = new double[3 * atoms];
+		double[] gradient = new double[this.backboneBonds.length];
+		
+		this.getBackboneAtomPositions(positions);
+		energy.gradient(positions, atomGradient);
+		
+		double fx = 0, fy = 0, fz = 0;	// the sum of the gradients of the moved atoms
+		double tx = 0, ty = 0, tz = 0;	// the sum of the torques of the moved atoms
+		
+		for (int k = this.backboneBonds.length - 1; k >= 0; k--) {
+			// the rotation of the k-th bond moves the atoms from the (k+2)-th atom
+			int a = k + 2;
+			
+			if (a < atoms) {
+				double px = positions[3*a], py = positions[3*a+1], pz = positions[3*a+2];
+				double gx = atomGradient[3*a], gy = atomGradient[3*a+1], gz = atomGradient[3*a+2];
+				
+				fx += gx; fy += gy; fz += gz;
+				tx += py*gz - pz*gy;
+				ty += pz*gx - px*gz;
+				tz += px*gy - py*gx;
+			}
+			
+			// the axis of the bond
+			double qx = positions[3*k], qy = positions[3*k+1], qz = positions[3*k+2];
+			double ux = positions[3*k+3] - qx, uy = positions[3*k+4] - qy, uz = positions[3*k+5] - qz;
+			double length = Math.sqrt(ux*ux + uy*uy + uz*uz);
+			
+			// T - q x F
+			double mx = tx - (qy*fz - qz*fy);
+			double my = ty - (qz*fx - qx*fz);
+			double mz = tz - (qx*fy - qy*fx);
+			
+			gradient[k] = (ux*mx + uy*my + uz*mz) / length;
+		}
+		
+		return gradient;
+	}
+
+	/**
+	 * Returns the absolute positions of the side chain atoms of an amino acid.
+	 * 
+	 * @param aminoAcid The amino acid.
+	 * @return The points of the side chain atoms (empty if no side chain is attached).
+	 */
+	public List<Point3D> getSideChainAtomPositions(int aminoAcid) {
+		List<Point3D> points = new ArrayList<Point3D>();
+		SideChain sideChain = this.backboneBonds[this.getPsi(aminoAcid)].sideChain;
+		
+		if (sideChain != null) {
+			TransformationMatrix transformationMatrix = this.getWorldTransformation(this.getPsi(aminoAcid));
+			
+			for (Point3D point : sideChain.getAtomPositions()) {
+				points.add(transformationMatrix.transform(point));
+			}
+		}
+		
+		return points;
+	}
+
 	/**
 	 * Returns a list of all the rotatable (non locked) bonds ofprivate
 	 * the backbone.
@@ -242,6 +475,7 @@ public class ChainTree {
 		
 		// copy protein information
 		cTree.proteinInformation = this.proteinInformation.subList(start-1, end);
+		cTree.copySideChains(this, start);
 		
 		return cTree;
 	}
@@ -299,6 +533,33 @@ public class ChainTree {
 		return dihedralAngles;
 	}
 	
+	/**
+	 * Returns the dihedral angle about a bond. The angle is maintained in the leaf 
+	 * of the bond, so no positions are computed.
+	 * 
+	 * @param bond The index of the bond.
+	 * @return The dihedral angle in radians (0 for the first and last bond).
+	 */
+	public double getDihedralAngle(int bond) {
+		// the dihedral angles of the end bonds are undefined
+		if (bond == 0 || bond == this.backboneBonds.length-1)
+			return 0.0;
+		
+		return this.backboneBonds[bond].torsion;
+	}
+	
+	/**
+	 * Copies the dihedral angles of all bonds into the array without allocation.
+	 * 
+	 * @param angles The array to store the angle of each bond in.
+	 * @require angles.length >= this.backboneBonds.length
+	 */
+	public void getDihedralAngles(double[] angles) {
+		for (int i = 0; i < this.backboneBonds.length; i++) {
+			angles[i] = this.getDihedralAngle(i);
+		}
+	}
+	
 	/**
 	 * Returns a transformation matrix from the given backbone coordinate system
 	 * to the world coordinate system.
@@ -398,85 +659,362 @@ public class ChainTree {
 	/**
 	 * Tests the tree for a self-clash.
 	 * 
+	 * The test is temporally coherent: the tree remembers the front of node pairs at
+	 * which the last test terminated (the separated pairs and the clashing leaves) and
+	 * the next test starts from this front. Pairs not affected by the bonds rotated
+	 * since the last test are reused, while affected pairs are re-descended when they
+	 * overlap or re-ascended when their parent pair has become separated. If no bond
+	 * has been rotated since the last test its result is returned without a scan.
+	 * The front keeps its order between tests.
+	 * 
 	 * @return true if the tree clashes with it self.
 	 */
 	public boolean isClashing() {
-		boolean isClashing = isClashing(this.root, this.root);
+		// nothing has moved since the last test
+		if (this.front != null && this.rotatedBonds.isEmpty())
+			return this.wasClashing;
+		
+		// a recent clash is likely to occur again
+		// NOTE: the rotated bonds are kept as the front has not seen the changes
+		if (this.isClashingWitness()) {
+			this.witnessHits++;
+			return true;
+		}
+		
+		this.witnessMisses++;
+		
+		// the first test starts from the root (the initial conformation is assumed not to clash)
+		if (this.front == null) {
+			this.front = new ArrayList<FrontPair>();
+			this.front.add(new FrontPair(this.root, this.root, null, true));
+		}
+		
+		List<FrontPair> pairs = this.front;
+		List<FrontPair> front = new ArrayList<FrontPair>(pairs.size());
+		
+		boolean isClashing = false;
+		boolean hasAscended = false;
+		
+		// process the old front depth first from its end
+		while (!pairs.isEmpty()) {
+			FrontPair pair = pairs.remove(pairs.size()-1);
+			
+			// the subtree of this pair has been replaced by an ascended pair
+			if (hasAscended && pair.isObsolete())
+				continue;
+			
+			CTNode left = pair.left;
+			CTNode right = pair.right;
+			
+			// NOTE: This is a purely technical check to avoid double check of the same subtrees
+			if (right.low < left.low)
+				continue;
+			
+			// neighbouring atoms does not cause a clash
+			// neither does the neighbours neighbour since the bounding box of the i-th bond covers the i+1-th atom
+			if (left.low + 2 >= right.high)
+				continue;
+			
+			// if no change has occurred between the trees then they have not changed position internaly
+			boolean hasChanged = this.hasChanged(left, right);
+			
+			// once a clash is found the remaining pairs are kept for the next test without being tested 
+			if (isClashing) {
+				if (hasChanged)
+					pair.isVerified = false;
+				
+				front.add(pair);
+				continue;
+			}
+			
+			if (!hasChanged && pair.isVerified) {
+				front.add(pair);
+				continue;
+			}
+			
+			// pairs below an unverified pair must be tested as well 
+			boolean isVerified = pair.isVerified;
+			pair.isVerified = true;
+			
+			// the pair is separated 
+			if (!this.isOverlaping(left, right)) {
+				// re-ascend if the parent pair is separated as well
+				FrontPair parent = pair.parent;
+				
+				if (hasChanged && parent != null && !parent.isObsolete() && parent.splitEpoch == pair.parentEpoch && !this.isOverlaping(parent.left, parent.right)) {
+					parent.splitEpoch++;
+					parent.isVerified = true;
+					front.add(parent);
+					
+					hasAscended = true;
+				} else {
+					front.add(pair);
+				}
+				
+				continue;
+			}
+			
+			// if leaves then report clash
+			if (left.isLeaf() && right.isLeaf()) {
+				front.add(pair);
+				
+				isClashing = true;
+				this.l1 = left;
+				this.l2 = right;
+				this.addWitness(null, left.low, right.low);
+				continue;
+			}
+			
+			// continue search (the first child pair is pushed last so it is tested first)
+			if(left.isLeaf()) {
+				pairs.add(new FrontPair(left, right.right, pair, isVerified));
+				pairs.add(new FrontPair(left, right.left, pair, isVerified));
+				
+			} else if (right.isLeaf()) {
+				pairs.add(new FrontPair(left.right, right, pair, isVerified));
+				pairs.add(new FrontPair(left.left, right, pair, isVerified));
+				
+			} else {
+				// only split the larger volume to avoid future repeated checks
+				// this still works as it is depth first into the largest volumes
+				if (left.boundingVolume.volume() > right.boundingVolume.volume()) {
+					pairs.add(new FrontPair(left.right, right, pair, isVerified));
+					pairs.add(new FrontPair(left.left, right, pair, isVerified));
+				} else {
+					pairs.add(new FrontPair(left, right.right, pair, isVerified));
+					pairs.add(new FrontPair(left, right.left, pair, isVerified));
+				}		   
+			}
+		}
 		
+		// remove the pairs replaced by ascended pairs
+		if (hasAscended) {
+			List<FrontPair> filtered = new ArrayList<FrontPair>(front.size());
+			
+			for (FrontPair pair : front) {
+				if (!pair.isObsolete())
+					filtered.add(pair);
+			}
+			
+			front = filtered;
+		}
+		
+		// the old front was processed from its end, so restore its order
+		Collections.reverse(front);
+		
+		this.front = front;
+		this.wasClashing = isClashing;
 		this.rotatedBonds.clear();
 		
 		return isClashing;
 	}
 	
 	/**
-	 * Check if the sub-chains of two nodes does clash.
+	 * Forgets the front of the last self-clash test so the next test starts from the root.
+	 * This must be called if the bounding volumes are changed outside the tree.
+	 */
+	public void resetClashFront() {
+		this.front = null;
+		this.wasClashing = false;
+	}
+	
+	/**
+	 * The number of node pairs in the front of the last self-clash test.
+	 * 
+	 * @return The size of the front.
+	 */
+	public int getClashFrontSize() {
+		return (this.front == null) ? 0 : this.front.size();
+	}
+	
+	/**
+	 * Has any bond been rotated between or in the sub-chains of two nodes since the last
+	 * self-clash test.
+	 * 
+	 * @param left The left node.
+	 * @param right The right node.
+	 * @require left.low <= right.low
+	 */
+	private boolean hasChanged(CTNode left, CTNode right) {
+		for(int bond : this.rotatedBonds) {
+			if (left.low <= bond && bond <= right.high)	// in left subtree, in right subtree or between them
+				return true;
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Check if the sub-chains of two nodes overlap. For two leaves this is the exact clash test.
 	 * 
-	 * @param node1 A node to check for overlap.
-	 * @param node2 A node to check for overlap.
-	 * @return true if there is a clash else false
+	 * @param left A node to check for overlap.
+	 * @param right A node to check for overlap.
+	 * @require left.low <= right.low
+	 * @return true if there is an overlap else false
 	 */
 	public CTNode l1 = null;
 	public CTNode l2 = null;
-	private boolean isClashing(CTNode left, CTNode right) {
+	private boolean isOverlaping(CTNode left, CTNode right) {
+		// screen for overlap on the coarse volumes
+		TransformationMatrix transformationMatrix = this.getTransformationMatrix(left.low, right.low);
+		this.coarseTests++;
 		
-		// NOTE: This is a purely technical check to avoid double check of the same subtrees
-		if (right.low < left.low)
+		if (!left.coarseVolume.isOverlaping(right.coarseVolume, transformationMatrix))
 			return false;
 		
-		// neighbouring atoms does not cause a clash
-		// neither does the neighbours neighbour since the bounding box of the i-th bond covers the i+1-th atom
-		if (left.low + 2 >= right.high)
+		// check for overlap
+		this.fineTests++;
+		boolean overlap = left.boundingVolume.isOverlaping(right.boundingVolume.transform(transformationMatrix));
+
+		if (!overlap)
 			return false;
 		
-		// if no change has occurred between the trees then they have not changed position internaly
-		boolean hasChanged = false;
+		// leaves must clash
+		if (left.isLeaf() && right.isLeaf())
+			return ((CTLeaf) left).isClashing((CTLeaf) right, transformationMatrix);
 		
-		for(int bond : this.rotatedBonds) {
-			hasChanged = (left.low <= bond && bond <= left.high) ||   // in left subtree
-		  				 (right.low <= bond && bond <= right.high) || // in right subtree
-		  				 (left.low <= bond && bond <= right.high);    // between left and right subtree
-			
-			if(hasChanged)
-				break;
+		return true;
+	}
+	
+	/**
+	 * A pair of nodes in the front of the self-clash test.
+	 */
+	private static class FrontPair {
+		CTNode left, right;			// the nodes of the pair
+		FrontPair parent;			// the pair this pair was split from
+		int parentEpoch;			// the split epoch of the parent when this pair was created
+		int splitEpoch = 0;			// increased when the pairs below this pair are replaced by it
+		boolean isVerified;			// is the pair unchanged since it was last tested
+		
+		FrontPair(CTNode left, CTNode right, FrontPair parent, boolean isVerified) {
+			this.left = left;
+			this.right = right;
+			this.parent = parent;
+			this.parentEpoch = (parent == null) ? 0 : parent.splitEpoch;
+			this.isVerified = isVerified;
 		}
 		
-		if(!hasChanged)
-			return false;
+		/**
+		 * Has an ancestor of this pair re-ascended since the pair was created.
+		 */
+		boolean isObsolete() {
+			for (FrontPair pair = this; pair.parent != null; pair = pair.parent) {
+				if (pair.parentEpoch != pair.parent.splitEpoch)
+					return true;
+			}
 			
-		
-		// check for overlap
-		boolean overlap = left.boundingVolume.isOverlaping(right.boundingVolume.transform(this.getTransformationMatrix(left.low, right.low)));
-
-		if (!overlap)
 			return false;
-		
-		// if leaves then report clash
-		if (left.isLeaf() && right.isLeaf()) {
-			this.l1 = left;
-			this.l2 = right;
-			return true;
 		}
+	}
+	
+	/**
+	 * Finds the pairs of amino acids whose alpha carbons are within the given distance.
+	 * The search descends the tree in pairs of nodes and prunes node pairs whose coarse 
+	 * volumes are further apart than the distance.
+	 * 
+	 * @param distance The maximal distance between the alpha carbons.
+	 * @param minSeparation The minimal difference between the indices of the amino acids in a pair.
+	 * @return The pairs of amino acids (lowest index first).
+	 */
+	public List<Tuple2<Integer,Integer>> getResiduePairsWithin(double distance, int minSeparation) {
+		return this.getResiduePairsWithin(distance, minSeparation, null);
+	}
+	
+	/**
+	 * Finds the pairs of amino acids whose alpha carbons are within the given distance 
+	 * and are moved relative to each other by a rotation of one of the given bonds. Node 
+	 * pairs that no bond lies between are pruned as well, so a search after a local move 
+	 * only visits the part of the tree spanning the move.
+	 * 
+	 * @param distance The maximal distance between the alpha carbons.
+	 * @param minSeparation The minimal difference between the indices of the amino acids in a pair.
+	 * @param bonds The rotated bonds in increasing order or null for all pairs.
+	 * @return The pairs of amino acids (lowest index first).
+	 */
+	public List<Tuple2<Integer,Integer>> getResiduePairsWithin(double distance, int minSeparation, int[] bonds) {
+		List<Tuple2<Integer,Integer>> pairs = new ArrayList<Tuple2<Integer,Integer>>();
 		
-		// continue search
-		if(left.isLeaf()) {
-			return this.isClashing(left, right.left) || 
-				   this.isClashing(left, right.right);
+		this.getResiduePairsWithin(this.root, this.root, distance, minSeparation, bonds, pairs);
+		
+		return pairs;
+	}
+	
+	/**
+	 * Finds the pairs of amino acids in the sub chains of two nodes whose alpha carbons 
+	 * are within the given distance.
+	 * 
+	 * @param left A node.
+	 * @param right A node.
+	 * @param distance The maximal distance between the alpha carbons.
+	 * @param minSeparation The minimal difference between the indices of the amino acids in a pair.
+	 * @param bonds The rotated bonds in increasing order or null for all pairs.
+	 * @param pairs The list to add the pairs to.
+	 */
+	private void getResiduePairsWithin(CTNode left, CTNode right, double distance, int minSeparation, int[] bonds, List<Tuple2<Integer,Integer>> pairs) {
+		// NOTE: This is a purely technical check to avoid double check of the same subtrees
+		if (right.low < left.low)
+			return;
+		
+		// no amino acids are separated enough
+		if (this.getAminoAcid(right.high) - this.getAminoAcid(left.low) < minSeparation)
+			return;
+		
+		// no rotated bond moves an atom of the right node relative to an atom of the left node
+		if (bonds != null && !isSpanned(left.low, right.high, bonds))
+			return;
+		
+		TransformationMatrix transformationMatrix = this.getTransformationMatrix(left.low, right.low);
+		
+		// the atoms are contained in the coarse volumes
+		if (left.coarseVolume.distance(right.coarseVolume, transformationMatrix) > distance)
+			return;
+		
+		if (left.isLeaf() && right.isLeaf()) {
+			// only the alpha carbons at the start of the psi bonds
+			if (this.getBondType(left.low) != BondType.PSI || this.getBondType(right.low) != BondType.PSI)
+				return;
+			
+			int i = this.getAminoAcid(left.low);
+			int j = this.getAminoAcid(right.low);
+			
+			// the right atom is at the origin of its coordinate system
+			double x = transformationMatrix.a14, y = transformationMatrix.a24, z = transformationMatrix.a34;
 			
-		} else if (right.isLeaf()) {
-			return this.isClashing(left.left, right) || 
-				   this.isClashing(left.right, right);
+			if (j - i >= minSeparation && x*x + y*y + z*z <= distance*distance && (bonds == null || isSpanned(left.low, right.low, bonds))) {
+				pairs.add(new Tuple2<Integer,Integer>(i, j));
+			}
 			
+			return;
+		}
+		
+		// split the larger volume
+		if (right.isLeaf() || (!left.isLeaf() && left.coarseVolume.radius > right.coarseVolume.radius)) {
+			this.getResiduePairsWithin(left.left, right, distance, minSeparation, bonds, pairs);
+			this.getResiduePairsWithin(left.right, right, distance, minSeparation, bonds, pairs);
 		} else {
-			// only split the larger volume to avoid future repeated checks
-			// this still works as it is depth first into the largest volumes
-			if (left.boundingVolume.volume() > right.boundingVolume.volume()) {
-				return this.isClashing(left.left, right) || 
-					   this.isClashing(left.right, right);
-			} else {
-				return this.isClashing(left, right.left) || 
-					   this.isClashing(left, right.right);
-			}		   
+			this.getResiduePairsWithin(left, right.left, distance, minSeparation, bonds, pairs);
+			this.getResiduePairsWithin(left, right.right, distance, minSeparation, bonds, pairs);
+		}
+	}
+	
+	/**
+	 * Determines if one of the bonds moves the second atom relative to the first. The 
+	 * rotation of the i-th bond moves the atoms after the (i+1)-th atom.
+	 * 
+	 * @param first The index of the first atom.
+	 * @param second The index of the second atom.
+	 * @param bonds The rotated bonds in increasing order.
+	 * @return true if a bond lies between the atoms else false.
+	 */
+	public static boolean isSpanned(int first, int second, int[] bonds) {
+		// the first rotated bond that can move the second atom without the first
+		int i = Arrays.binarySearch(bonds, first - 1);
+		
+		if (i < 0) {
+			i = -i - 1;
 		}
+		
+		return i < bonds.length && bonds[i] + 2 <= second;
 	}
 	
 	/**
@@ -486,6 +1024,15 @@ public class ChainTree {
 	 * @return true if a clash occurs else false.
 	 */
 	public boolean areClashing(ChainTree other) {
+		// a recent clash is likely to occur again
+		// NOTE: the lowest rotated bond is kept as the other leaves have not been tested 
+		if (this.areClashingWitness(other, null, null)) {
+			this.witnessHits++;
+			return true;
+		}
+		
+		this.witnessMisses++;
+		
 		boolean areClashing = areClashing(this.root, other.root, other);
 		
 		this.lowestRotatedBond = Integer.MAX_VALUE;
@@ -500,6 +1047,17 @@ public class ChainTree {
 	 * @return true if a clash occurs else false.
 	 */
 	public boolean areClashing(ChainTree[] others) {
+		// a recent clash is likely to occur again
+		// NOTE: the lowest rotated bond is kept as the other leaves have not been tested 
+		for(ChainTree other : others) {
+			if (this.areClashingWitness(other, null, null)) {
+				this.witnessHits++;
+				return true;
+			}
+		}
+		
+		this.witnessMisses++;
+		
 		boolean areClashing = false;
 		
 		for(ChainTree other : others) {
@@ -530,16 +1088,27 @@ public class ChainTree {
 			return false;
 		
 		// check for overlap
-		BoundingVolume thisVolume = thisNode.boundingVolume.transform(this.getWorldTransformation(thisNode.low));
-		BoundingVolume otherVolume = otherNode.boundingVolume.transform(other.getWorldTransformation(otherNode.low));
+		TransformationMatrix thisTransformation = this.getWorldTransformation(thisNode.low);
+		TransformationMatrix otherTransformation = other.getWorldTransformation(otherNode.low);
+		
+		if (!this.isOverlapingCoarse(thisNode, thisTransformation, otherNode, otherTransformation))
+			return false;
+		
+		BoundingVolume thisVolume = thisNode.boundingVolume.transform(thisTransformation);
+		BoundingVolume otherVolume = otherNode.boundingVolume.transform(otherTransformation);
 
 		// if no overlap then stop
 		if(!thisVolume.isOverlaping(otherVolume))
 			return false;
 		
 		// leaves are clashing
-		if(thisNode.isLeaf() && otherNode.isLeaf())
+		if(thisNode.isLeaf() && otherNode.isLeaf()) {
+			if (!isClashing((CTLeaf) thisNode, thisTransformation, (CTLeaf) otherNode, otherTransformation))
+				return false;
+			
+			this.addWitness(other, thisNode.low, otherNode.low);
 			return true;
+		}
 		
 		// continue search
 		if(thisNode.isLeaf()) {
@@ -563,19 +1132,502 @@ public class ChainTree {
 	}
 
 	/**
-	 * Changes the rotation angle of the i-th bond by the specified angle.
-	 * 
-	 * @param i The index of the bond.
-	 * @param angle The angle to rotate the bond by in radians.
+	 * Determines if this chain tree clashes with the other when the two trees are placed
+	 * in the world by the given transformations instead of their own world transformations.
+	 *
+	 * As the placements are arbitrary no information about the last rotated bonds is used.
+	 *
+	 * @param other The other chain tree (may be this tree).
+	 * @param thisPlacement The transformation from this trees local coordinates to the world.
+	 * @param otherPlacement The transformation from the other trees local coordinates to the world.
+	 * @return true if a clash occurs else false.
 	 */
-	public void changeRotationAngle(int i, double angle) {
-		CTLeaf bond = this.backboneBonds[i];
+	public boolean areClashing(ChainTree other, TransformationMatrix thisPlacement, TransformationMatrix otherPlacement) {
+		// a recent clash is likely to occur again
+		if (this.areClashingWitness(other, thisPlacement, otherPlacement)) {
+			this.witnessHits++;
+			return true;
+		}
 		
-		// update the bonds transformation matrix
-		bond.rotate(angle);
+		this.witnessMisses++;
 		
-		// propagate changes up thought the tree
-		CTNode node = (CTNode) bond;
+		return this.areClashing(this.root, thisPlacement, other.root, otherPlacement, other);
+	}
+
+	/**
+	 * Determines if the sub chain represented by the node in this tree clashes with the sub
+	 * chain represented by the node in the other tree given the placements of the trees.
+	 *
+	 * @param thisNode The node to test in this tree.
+	 * @param thisPlacement The placement of this tree in the world.
+	 * @param otherNode The node to test in the other tree.
+	 * @param otherPlacement The placement of the other tree in the world.
+	 * @param other The other tree.
+	 * @return true if the trees clash else false.
+	 */
+	private boolean areClashing(CTNode thisNode, TransformationMatrix thisPlacement, CTNode otherNode, TransformationMatrix otherPlacement, ChainTree other) {
+		// check for overlap
+		TransformationMatrix thisTransformation = this.getTransformationMatrix(0, thisNode.low);
+		thisTransformation.multL(thisPlacement);
+
+		TransformationMatrix otherTransformation = other.getTransformationMatrix(0, otherNode.low);
+		otherTransformation.multL(otherPlacement);
+
+		if (!this.isOverlapingCoarse(thisNode, thisTransformation, otherNode, otherTransformation))
+			return false;
+
+		BoundingVolume thisVolume = thisNode.boundingVolume.transform(thisTransformation);
+		BoundingVolume otherVolume = otherNode.boundingVolume.transform(otherTransformation);
+
+		// if no overlap then stop
+		if(!thisVolume.isOverlaping(otherVolume))
+			return false;
+
+		// leaves are clashing
+		if(thisNode.isLeaf() && otherNode.isLeaf()) {
+			if (!isClashing((CTLeaf) thisNode, thisTransformation, (CTLeaf) otherNode, otherTransformation))
+				return false;
+			
+			this.addWitness(other, thisNode.low, otherNode.low);
+			return true;
+		}
+
+		// continue search
+		if(thisNode.isLeaf()) {
+			return this.areClashing(thisNode, thisPlacement, otherNode.left, otherPlacement, other) ||
+			       this.areClashing(thisNode, thisPlacement, otherNode.right, otherPlacement, other);
+
+		} else if(otherNode.isLeaf()) {
+			return this.areClashing(thisNode.left, thisPlacement, otherNode, otherPlacement, other) ||
+		       	   this.areClashing(thisNode.right, thisPlacement, otherNode, otherPlacement, other);
+
+		} else {
+			// only split the larger volume to avoid future repeated checks
+			if (thisNode.boundingVolume.volume() > otherNode.boundingVolume.volume()) {
+				return this.areClashing(thisNode.left, thisPlacement, otherNode, otherPlacement, other)  ||
+					   this.areClashing(thisNode.right, thisPlacement, otherNode, otherPlacement, other);
+			} else {
+				return this.areClashing(thisNode, thisPlacement, otherNode.left, otherPlacement, other)  ||
+					   this.areClashing(thisNode, thisPlacement, otherNode.right, otherPlacement, other);
+			}
+		}
+	}
+
+	/**
+	 * Screens two nodes for overlap on their coarse volumes given their transformations to the world.
+	 * 
+	 * @param thisNode A node.
+	 * @param thisTransformation The transformation from the nodes coordinate system to the world.
+	 * @param otherNode The other node.
+	 * @param otherTransformation The transformation from the other nodes coordinate system to the world.
+	 * @return false if the nodes are known not to overlap and true if the full volumes must be tested.
+	 */
+	private boolean isOverlapingCoarse(CTNode thisNode, TransformationMatrix thisTransformation, CTNode otherNode, TransformationMatrix otherTransformation) {
+		this.coarseTests++;
+		
+		BoundingVolume thisSphere = thisNode.coarseVolume.transform(thisTransformation);
+		BoundingVolume otherSphere = otherNode.coarseVolume.transform(otherTransformation);
+		
+		if (!thisSphere.isOverlaping(otherSphere))
+			return false;
+		
+		this.fineTests++;
+		return true;
+	}
+	
+	/**
+	 * The number of node pairs screened on the coarse volumes by the clash checks.
+	 * 
+	 * @return The number of coarse overlap tests.
+	 */
+	public long getCoarseTests() {
+		return this.coarseTests;
+	}
+	
+	/**
+	 * The number of node pairs where the coarse screening was inconclusive and the
+	 * full volumes had to be tested.
+	 * 
+	 * @return The number of fine overlap tests.
+	 */
+	public long getFineTests() {
+		return this.fineTests;
+	}
+	
+	/**
+	 * Resets the coarse and fine test counters.
+	 */
+	public void resetClashStatistics() {
+		this.coarseTests = 0;
+		this.fineTests = 0;
+		this.witnessHits = 0;
+		this.witnessMisses = 0;
+	}
+	
+	/**
+	 * The number of clash checks answered by a recently clashing pair of leaves.
+	 * 
+	 * @return The number of witness cache hits.
+	 */
+	public long getWitnessHits() {
+		return this.witnessHits;
+	}
+	
+	/**
+	 * The number of clash checks where no recently clashing pair of leaves clashed
+	 * and the full test was needed.
+	 * 
+	 * @return The number of witness cache misses.
+	 */
+	public long getWitnessMisses() {
+		return this.witnessMisses;
+	}
+	
+	/**
+	 * Tests the recently clashing pairs of leaves in this tree for a self-clash.
+	 * Only pairs affected by the bonds rotated since the last test are tested.
+	 * 
+	 * @return true if a pair clashes else false.
+	 */
+	private boolean isClashingWitness() {
+		if (this.rotatedBonds.isEmpty())
+			return false;
+		
+		for (ClashWitness witness : this.witnesses) {
+			if (witness.other != null)
+				continue;
+			
+			CTNode left = this.backboneBonds[witness.thisBond];
+			CTNode right = this.backboneBonds[witness.otherBond];
+			
+			if (!this.hasChanged(left, right))
+				continue;
+			
+			if (this.isOverlaping(left, right)) {
+				this.l1 = left;
+				this.l2 = right;
+				this.useWitness(witness);
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Tests the recently clashing pairs of leaves between this and the other tree. 
+	 * 
+	 * @param other The other tree.
+	 * @param thisPlacement The placement of this tree in the world or null to use its world transformation.
+	 * @param otherPlacement The placement of the other tree in the world or null to use its world transformation.
+	 * @return true if a pair clashes else false.
+	 */
+	private boolean areClashingWitness(ChainTree other, TransformationMatrix thisPlacement, TransformationMatrix otherPlacement) {
+		for (ClashWitness witness : this.witnesses) {
+			if (witness.other != other)
+				continue;
+			
+			// has this leaf been moved in the world?
+			if (thisPlacement == null && witness.thisBond < this.lowestRotatedBond)
+				continue;
+			
+			CTLeaf thisLeaf = this.backboneBonds[witness.thisBond];
+			CTLeaf otherLeaf = other.backboneBonds[witness.otherBond];
+			
+			TransformationMatrix thisTransformation, otherTransformation;
+			
+			if (thisPlacement == null) {
+				thisTransformation = this.getWorldTransformation(witness.thisBond);
+				otherTransformation = other.getWorldTransformation(witness.otherBond);
+			} else {
+				thisTransformation = this.getTransformationMatrix(0, witness.thisBond);
+				thisTransformation.multL(thisPlacement);
+				otherTransformation = other.getTransformationMatrix(0, witness.otherBond);
+				otherTransformation.multL(otherPlacement);
+			}
+			
+			if (!this.isOverlapingCoarse(thisLeaf, thisTransformation, otherLeaf, otherTransformation))
+				continue;
+			
+			if (!thisLeaf.boundingVolume.transform(thisTransformation).isOverlaping(otherLeaf.boundingVolume.transform(otherTransformation)))
+				continue;
+			
+			if (isClashing(thisLeaf, thisTransformation, otherLeaf, otherTransformation)) {
+				this.useWitness(witness);
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Remembers a clashing pair of leaves as the most recent witness.
+	 * 
+	 * @param other The other tree or null for a self-clash.
+	 * @param thisBond The clashing leaf in this tree.
+	 * @param otherBond The clashing leaf in the other tree.
+	 */
+	private void addWitness(ChainTree other, int thisBond, int otherBond) {
+		for (ClashWitness witness : this.witnesses) {
+			if (witness.other == other && witness.thisBond == thisBond && witness.otherBond == otherBond) {
+				this.useWitness(witness);
+				return;
+			}
+		}
+		
+		if (this.witnesses.size() == WITNESS_CACHE_SIZE)
+			this.witnesses.removeLast();
+		
+		this.witnesses.addFirst(new ClashWitness(other, thisBond, otherBond));
+	}
+	
+	/**
+	 * Moves a witness to the front of the cache.
+	 * 
+	 * @param witness The witness that clashed.
+	 */
+	private void useWitness(ClashWitness witness) {
+		this.witnesses.remove(witness);
+		this.witnesses.addFirst(witness);
+	}
+	
+	/**
+	 * A pair of leaves that has recently clashed.
+	 */
+	private static class ClashWitness {
+		ChainTree other;	// the tree of the other leaf or null if in this tree
+		int thisBond;		// the leaf in this tree
+		int otherBond;		// the leaf in the other tree
+		
+		ClashWitness(ChainTree other, int thisBond, int otherBond) {
+			this.other = other;
+			this.thisBond = thisBond;
+			this.otherBond = otherBond;
+		}
+	}
+	
+	/**
+	 * Determines if two leaves clash given their transformations to the world.
+	 * 
+	 * @param thisLeaf A leaf.
+	 * @param thisTransformation The transformation from the leafs coordinate system to the world.
+	 * @param otherLeaf The other leaf.
+	 * @param otherTransformation The transformation from the other leafs coordinate system to the world.
+	 * @return true if the leaves clash else false.
+	 */
+	private static boolean isClashing(CTLeaf thisLeaf, TransformationMatrix thisTransformation, CTLeaf otherLeaf, TransformationMatrix otherTransformation) {
+		// no need for the exact test without side chains as the volumes are known to overlap
+		if (thisLeaf.sideChain == null && otherLeaf.sideChain == null)
+			return true;
+		
+		TransformationMatrix transformationMatrix = thisTransformation.getInverse();
+		transformationMatrix.multR(otherTransformation);
+		
+		return thisLeaf.isClashing(otherLeaf, transformationMatrix);
+	}
+
+	/**
+	 * Sets the target positions of the backbone atoms for the superposition RMSD. The 
+	 * moments of the atoms against the targets are then maintained in the nodes.
+	 * 
+	 * @param targets The target positions of all backbone atoms.
+	 * @require targets.size() == this.backboneBonds.length+1
+	 */
+	public void setSuperpositionTarget(List<Point3D> targets) {
+		if (targets.size() != this.backboneBonds.length+1) {
+			throw new IllegalArgumentException("The number of targets must equal the number of backbone atoms!");
+		}
+		
+		this.attachMoments(targets);
+		this.hasSuperpositionTarget = true;
+	}
+	
+	/**
+	 * Computes the root mean square deviation of the backbone atoms from the target 
+	 * positions after optimal superposition in O(1) from the moments in the root.
+	 * 
+	 * @return The superposition RMSD.
+	 */
+	public double getSuperpositionRMSD() {
+		if (!this.hasSuperpositionTarget) {
+			throw new IllegalArgumentException("No superposition target has been set!");
+		}
+		
+		return this.getChainMoments().superpositionRMSD();
+	}
+	
+	/**
+	 * Computes the radius of gyration of the backbone atoms in O(1) from the moments in
+	 * the root. The moments are maintained from the first call.
+	 * 
+	 * @return The radius of gyration.
+	 */
+	public double getRadiusOfGyration() {
+		return this.getChainMoments().radiusOfGyration();
+	}
+	
+	/**
+	 * Computes the gyration tensor of the backbone atoms in O(1) from the moments in
+	 * the root. The moments are maintained from the first call.
+	 * 
+	 * @return The gyration tensor in the coordinate system of the first bond.
+	 */
+	public SymmetricMatrix3x3 getGyrationTensor() {
+		return this.getChainMoments().gyrationTensor();
+	}
+	
+	/**
+	 * Returns the moments of all backbone atoms. The moments are attached to the 
+	 * nodes (without targets) if they are not maintained already.
+	 * 
+	 * @return The moments of the chain in the coordinate system of the first bond.
+	 */
+	private AtomMoments getChainMoments() {
+		if (this.lastAtomMoments == null) {
+			this.attachMoments(null);
+		}
+		
+		// the last atom is placed by the transformation of the entire chain
+		this.chainMoments.combine(this.root.moments, this.lastAtomMoments, this.root.transformationMatrix);
+		
+		return this.chainMoments;
+	}
+	
+	/**
+	 * Attaches the atom moments to the nodes of the tree.
+	 * 
+	 * @param targets The target positions of all backbone atoms or null if none.
+	 */
+	private void attachMoments(List<Point3D> targets) {
+		Point3D origin = new Point3D(0.0, 0.0, 0.0);
+		
+		// the i-th leaf covers the atom at the origin of its coordinate system
+		for (int i = 0; i < this.backboneBonds.length; i++) {
+			this.backboneBonds[i].moments = new AtomMoments((targets == null) ? origin : targets.get(i));
+		}
+		
+		this.lastAtomMoments = new AtomMoments((targets == null) ? origin : targets.get(this.backboneBonds.length));
+		
+		this.updateMoments(this.root);
+	}
+	
+	/**
+	 * Updates the atom moments in the subtree of the node bottom up.
+	 * 
+	 * @param node The root of the subtree.
+	 */
+	private void updateMoments(CTNode node) {
+		if (node.isLeaf())
+			return;
+		
+		this.updateMoments(node.left);
+		this.updateMoments(node.right);
+		
+		node.updateMoments();
+	}
+	
+	/**
+	 * Changes the rotation angle of the i-th bond by the specified angle.
+	 * 
+	 * @param i The index of the bond.
+	 * @param angle The angle to rotate the bond by in radians.
+	 */
+	public void changeRotationAngle(int i, double angle) {
+		this.rotateBond(i, angle);
+		
+		// remember the rotation so a trial move can be rejected
+		if (this.proposedRotations != null) {
+			this.proposedRotations.add(new Tuple2<Integer,Double>(i, angle));
+		}
+		
+		for (IncrementalEnergyFunction energyFunction : this.energyFunctions) {
+			energyFunction.onRotation(i, angle);
+		}
+	}
+	
+	/**
+	 * Attaches an energy function to the tree so it is notified of every rotation of a bond.
+	 * 
+	 * @param energyFunction The energy function to notify.
+	 */
+	public void attach(IncrementalEnergyFunction energyFunction) {
+		this.energyFunctions.add(energyFunction);
+	}
+	
+	/**
+	 * Detaches an energy function from the tree, eg. when it is no longer used.
+	 * 
+	 * @param energyFunction The energy function to stop notifying.
+	 */
+	public void detach(IncrementalEnergyFunction energyFunction) {
+		this.energyFunctions.remove(energyFunction);
+	}
+	
+	/**
+	 * Starts a trial move from the current conformation. The rotations until the move is
+	 * accepted or rejected are remembered so they can be undone.
+	 */
+	public void propose() {
+		this.proposedRotations = new ArrayList<Tuple2<Integer,Double>>();
+		
+		for (IncrementalEnergyFunction energyFunction : this.energyFunctions) {
+			energyFunction.propose();
+		}
+	}
+	
+	/**
+	 * Keeps the conformation of the trial move.
+	 */
+	public void accept() {
+		if (this.proposedRotations == null) {
+			throw new IllegalArgumentException("No move has been proposed!");
+		}
+		
+		this.proposedRotations = null;
+		
+		for (IncrementalEnergyFunction energyFunction : this.energyFunctions) {
+			energyFunction.accept();
+		}
+	}
+	
+	/**
+	 * Discards the trial move by undoing its rotations in reverse order. The attached
+	 * energy functions are not notified of the reverse rotations but restore their own 
+	 * state from the proposal.
+	 */
+	public void reject() {
+		if (this.proposedRotations == null) {
+			throw new IllegalArgumentException("No move has been proposed!");
+		}
+		
+		for (int k = this.proposedRotations.size()-1; k >= 0; k--) {
+			Tuple2<Integer,Double> rotation = this.proposedRotations.get(k);
+			
+			this.rotateBond(rotation.x, -rotation.y);
+		}
+		
+		this.proposedRotations = null;
+		
+		for (IncrementalEnergyFunction energyFunction : this.energyFunctions) {
+			energyFunction.reject();
+		}
+	}
+	
+	/**
+	 * Rotates the i-th bond by the specified angle and updates the tree.
+	 * 
+	 * @param i The index of the bond.
+	 * @param angle The angle to rotate the bond by in radians.
+	 */
+	private void rotateBond(int i, double angle) {
+		CTLeaf bond = this.backboneBonds[i];
+		
+		// update the bonds transformation matrix
+		bond.rotate(angle);
+		
+		// propagate changes up thought the tree
+		CTNode node = (CTNode) bond;
 		
 		while(node.parent != null) {
 			node = node.parent;
@@ -585,6 +1637,140 @@ public class ChainTree {
 		// remember the last rotated bond for checking algorithms
 		this.rotatedBonds.add(i);
 		this.lowestRotatedBond = (i < this.lowestRotatedBond) ? i : this.lowestRotatedBond;
+		this.modifications++;
+	}
+	
+	/**
+	 * The number of changes of the conformation (bond rotations and moves of the entire
+	 * chain) so far. Algorithms caching atom positions can compare it to the count at 
+	 * the time of caching to detect changes made by others.
+	 * 
+	 * @return The number of modifications.
+	 */
+	public long getModificationCount() {
+		return this.modifications;
+	}
+	
+	/**
+	 * Attaches side chains to the tree as rigid groups in the coordinate systems of
+	 * the alpha carbons.
+	 * 
+	 * @param sideChains The absolute positions of the side chain atoms of each amino acid
+	 * 					 by their PDB names (empty for amino acids without a side chain).
+	 * @require sideChains.size() == this.length()
+	 */
+	public void attachSideChains(List<Map<String,Point3D>> sideChains) {
+		for (int aminoAcid = 1; aminoAcid <= this.length(); aminoAcid++) {
+			Map<String,Point3D> atoms = sideChains.get(aminoAcid-1);
+			
+			if (atoms.isEmpty())
+				continue;
+			
+			int bond = this.getPsi(aminoAcid);
+			TransformationMatrix toLocal = this.getWorldTransformation(bond).getInverse();
+			Point3D nitrogen = this.getBackboneAtomPositions(aminoAcid, aminoAcid).get(0);
+			
+			this.setSideChain(bond, new SideChain(atoms, nitrogen, toLocal));
+		}
+	}
+	
+	/**
+	 * Copies the side chains of another tree into this tree. The side chains are moved
+	 * from the alpha carbon coordinate systems of the other tree into those of this tree,
+	 * which differ once a bond of the other tree has been rotated.
+	 * 
+	 * @param other The tree to copy the side chains from.
+	 * @param first The amino acid in the other tree corresponding to the first amino acid of this tree.
+	 */
+	protected void copySideChains(ChainTree other, int first) {
+		for (int aminoAcid = 1; aminoAcid <= this.length(); aminoAcid++) {
+			int otherBond = other.getPsi(aminoAcid+first-1);
+			SideChain sideChain = other.backboneBonds[otherBond].sideChain;
+			
+			if (sideChain != null) {
+				int bond = this.getPsi(aminoAcid);
+				TransformationMatrix transformation = other.getWorldTransformation(otherBond);
+				transformation.multL(this.getWorldTransformation(bond).getInverse());
+				
+				this.setSideChain(bond, new SideChain(sideChain, transformation));
+			}
+		}
+	}
+	
+	/**
+	 * Returns the k-th chi angle of an amino acid.
+	 * 
+	 * @param aminoAcid The amino acid.
+	 * @param k The chi angle (1-indexed).
+	 * @return The chi angle in radians.
+	 */
+	public double getChiAngle(int aminoAcid, int k) {
+		return this.getSideChain(aminoAcid).getChiAngle(k);
+	}
+	
+	/**
+	 * Changes the k-th chi angle of an amino acid by the specified angle.
+	 * 
+	 * @param aminoAcid The amino acid.
+	 * @param k The chi angle (1-indexed).
+	 * @param angle The angle to rotate by in radians.
+	 */
+	public void changeChiAngle(int aminoAcid, int k, double angle) {
+		int bond = this.getPsi(aminoAcid);
+		SideChain sideChain = this.getSideChain(aminoAcid);
+		
+		sideChain.changeChiAngle(k, angle);
+		this.setSideChain(bond, sideChain);
+	}
+	
+	/**
+	 * Sets the k-th chi angle of an amino acid.
+	 * 
+	 * @param aminoAcid The amino acid.
+	 * @param k The chi angle (1-indexed).
+	 * @param angle The desired chi angle in radians.
+	 */
+	public void setChiAngle(int aminoAcid, int k, double angle) {
+		this.changeChiAngle(aminoAcid, k, angle - this.getChiAngle(aminoAcid, k));
+	}
+	
+	/**
+	 * Returns the side chain of an amino acid.
+	 * 
+	 * @param aminoAcid The amino acid.
+	 * @return The side chain.
+	 */
+	private SideChain getSideChain(int aminoAcid) {
+		SideChain sideChain = this.backboneBonds[this.getPsi(aminoAcid)].sideChain;
+		
+		if (sideChain == null) {
+			throw new IllegalArgumentException("Amino acid " + aminoAcid + " has no side chain!");
+		}
+		
+		return sideChain;
+	}
+	
+	/**
+	 * Attaches a side chain to a bond and propagates the new bounding volume up through the tree.
+	 * 
+	 * @param bond The bond to attach the side chain to.
+	 * @param sideChain The side chain.
+	 */
+	private void setSideChain(int bond, SideChain sideChain) {
+		CTLeaf leaf = this.backboneBonds[bond];
+		leaf.setSideChain(sideChain);
+		
+		// propagate changes up thought the tree
+		CTNode node = leaf;
+		
+		while(node.parent != null) {
+			node = node.parent;
+			node.update();
+		}
+		
+		// the moved atoms must be checked for clashes
+		this.rotatedBonds.add(bond);
+		this.lowestRotatedBond = (bond < this.lowestRotatedBond) ? bond : this.lowestRotatedBond;
 	}
 	
 	/**
@@ -601,23 +1787,8 @@ public class ChainTree {
 			throw new IllegalArgumentException("Dihedral angles as nonsense for this bond!");
 		}
 		
-		List<Double> angles = this.getDihedralAngles(aminoAcid, (aminoAcid == this.length()) ? aminoAcid : aminoAcid+1);
-		
-		double currentAngle = Double.NaN;
-		
-		switch(bondType) {
-			case PHI:
-				currentAngle = angles.get(0);
-				break;
-			case PSI:
-				currentAngle = angles.get(1);
-				break;
-			case OMEGA:
-				currentAngle = angles.get(2);
-				break;
-		}
-		
-		this.changeRotationAngle(i, angle-currentAngle);
+		// the current angle is maintained in the leaf
+		this.changeRotationAngle(i, angle-this.getDihedralAngle(i));
 	}
 
 	/**
@@ -655,6 +1826,11 @@ public class ChainTree {
 		this.position = new Point3D(new Vector3D(this.position).add(move));
 		
 		this.worldTransformation.multR(new TransformationMatrix(this.position.x, this.position.y, this.position.z));
+		this.modifications++;
+		
+		for (IncrementalEnergyFunction energyFunction : this.energyFunctions) {
+			energyFunction.onRotation(-1, 0.0);
+		}
 	}
 	
 	/**
@@ -666,6 +1842,11 @@ public class ChainTree {
 	public void rotate(double angle) {
 		this.angle += angle;
 		this.worldTransformation.rotate(this.angle);
+		this.modifications++;
+		
+		for (IncrementalEnergyFunction energyFunction : this.energyFunctions) {
+			energyFunction.onRotation(-1, angle);
+		}
 	}
 	
 	@Override
@@ -0,0 +1,318 @@
+package dataStructure;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import math.Point3D;
+import math.matrix.TransformationMatrix;
+
+import boundingVolume.BoundingVolume;
+import boundingVolume.LinesegmentSweptSphere;
+
+/**
+ * The side chain of an amino acid stored as a rigid group of atoms in the
+ * coordinate system of the alpha carbon (the coordinate system of the psi bond).
+ *
+ * The side chain follows the backbone without any updates when the backbone is
+ * rotated. Rotamers are changed through the chi angles, where the k-th chi angle
+ * rotates all atoms more remote than the k-th atom along the branch (using the
+ * PDB remoteness indicators B, G, D, E, Z, H).
+ */
+public class SideChain {
+
+	private static String REMOTENESS = "ABGDEZH";	// the PDB remoteness indicators in order from the alpha carbon
+
+	private String[] names;							// the PDB names of the atoms
+	private Point3D[] atoms;						// the atom positions in the alpha carbon coordinate system
+	private int[] remoteness;						// the remoteness of each atom (the alpha carbon is 0)
+	private Point3D nitrogen;						// the backbone nitrogen in the alpha carbon coordinate system
+
+	public BoundingVolume boundingVolume;			// the bounding volume of all atoms in the side chain
+	private BoundingVolume[] atomVolumes;			// the bounding volume of each atom
+
+
+
+	/**
+	 * Creates a side chain from the absolute atom positions.
+	 *
+	 * @param atoms The absolute positions of the side chain atoms by their PDB name.
+	 * @param nitrogen The absolute position of the backbone nitrogen of the amino acid.
+	 * @param toLocal The transformation from the world to the alpha carbon coordinate system.
+	 * @require !atoms.isEmpty()
+	 */
+	public SideChain(Map<String,Point3D> atoms, Point3D nitrogen, TransformationMatrix toLocal) {
+		this.names = new String[atoms.size()];
+		this.atoms = new Point3D[atoms.size()];
+		this.remoteness = new int[atoms.size()];
+
+		int i = 0;
+		for (Map.Entry<String,Point3D> atom : atoms.entrySet()) {
+			this.names[i] = atom.getKey();
+			this.atoms[i] = toLocal.transform(atom.getValue());
+			this.remoteness[i] = remoteness(atom.getKey());
+
+			i++;
+		}
+
+		this.nitrogen = toLocal.transform(nitrogen);
+
+		this.update();
+	}
+
+	/**
+	 * Copies another side chain into a different alpha carbon coordinate system.
+	 *
+	 * @param other The side chain to copy.
+	 * @param transformation The transformation from the alpha carbon coordinate system of
+	 * 						 the other side chain into the coordinate system of the copy.
+	 */
+	public SideChain(SideChain other, TransformationMatrix transformation) {
+		this.names = other.names.clone();
+		this.atoms = new Point3D[other.atoms.length];
+		this.remoteness = other.remoteness.clone();
+
+		for (int i = 0; i < this.atoms.length; i++) {
+			this.atoms[i] = transformation.transform(other.atoms[i]);
+		}
+
+		this.nitrogen = transformation.transform(other.nitrogen);
+
+		this.update();
+	}
+
+
+
+	/**
+	 * The positions of the side chain atoms in the alpha carbon coordinate system.
+	 *
+	 * @return The positions of the atoms.
+	 */
+	public List<Point3D> getAtomPositions() {
+		List<Point3D> points = new ArrayList<Point3D>();
+
+		for (Point3D atom : this.atoms) {
+			points.add(atom);
+		}
+
+		return points;
+	}
+
+	/**
+	 * The PDB names of the side chain atoms.
+	 *
+	 * @return The names of the atoms in the same order as the positions.
+	 */
+	public String[] getAtomNames() {
+		return this.names.clone();
+	}
+
+	/**
+	 * The number of chi angles of the side chain.
+	 *
+	 * @return The number of chi angles.
+	 */
+	public int chiCount() {
+		int count = 0;
+
+		while (this.axisAtom(count+1) != -1 && this.hasMovingAtoms(count+1)) {
+			count++;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Returns the k-th chi angle.
+	 *
+	 * @param k The chi angle (1-indexed).
+	 * @return The dihedral angle in radians.
+	 */
+	public double getChiAngle(int k) {
+		Point3D p1 = this.atom(k-2);
+		Point3D p2 = this.atom(k-1);
+		Point3D p3 = this.atom(k);
+		Point3D p4 = this.atom(k+1);
+
+		if (p1 == null || p2 == null || p3 == null || p4 == null) {
+			throw new IllegalArgumentException("The side chain has no chi angle " + k + "!");
+		}
+
+		double b1x = p2.x-p1.x, b1y = p2.y-p1.y, b1z = p2.z-p1.z;
+		double b2x = p3.x-p2.x, b2y = p3.y-p2.y, b2z = p3.z-p2.z;
+		double b3x = p4.x-p3.x, b3y = p4.y-p3.y, b3z = p4.z-p3.z;
+
+		// n1 = b1 x b2, n2 = b2 x b3
+		double n1x = b1y*b2z-b1z*b2y, n1y = b1z*b2x-b1x*b2z, n1z = b1x*b2y-b1y*b2x;
+		double n2x = b2y*b3z-b2z*b3y, n2y = b2z*b3x-b2x*b3z, n2z = b2x*b3y-b2y*b3x;
+
+		double a = Math.sqrt(b2x*b2x+b2y*b2y+b2z*b2z) * (b1x*n2x+b1y*n2y+b1z*n2z);
+		double b = n1x*n2x+n1y*n2y+n1z*n2z;
+
+		return Math.atan2(a, b);
+	}
+
+	/**
+	 * Rotates the atoms beyond the k-th chi bond by the given angle.
+	 *
+	 * @param k The chi angle (1-indexed).
+	 * @param angle The angle to rotate by in radians.
+	 */
+	public void changeChiAngle(int k, double angle) {
+		Point3D start = this.atom(k-1);
+		Point3D end = this.atom(k);
+
+		if (start == null || end == null || !this.hasMovingAtoms(k)) {
+			throw new IllegalArgumentException("The side chain has no chi angle " + k + "!");
+		}
+
+		// rotation about the axis from start to end
+		TransformationMatrix rotation = new TransformationMatrix(end.x-start.x, end.y-start.y, end.z-start.z);
+		rotation.rotate(angle);
+		rotation.a14 = start.x - (rotation.a11*start.x + rotation.a12*start.y + rotation.a13*start.z);
+		rotation.a24 = start.y - (rotation.a21*start.x + rotation.a22*start.y + rotation.a23*start.z);
+		rotation.a34 = start.z - (rotation.a31*start.x + rotation.a32*start.y + rotation.a33*start.z);
+
+		for (int i = 0; i < this.atoms.length; i++) {
+			if (this.remoteness[i] > k) {
+				this.atoms[i] = rotation.transform(this.atoms[i]);
+			}
+		}
+
+		this.update();
+	}
+
+	/**
+	 * Sets the k-th chi angle.
+	 *
+	 * @param k The chi angle (1-indexed).
+	 * @param angle The desired dihedral angle in radians.
+	 */
+	public void setChiAngle(int k, double angle) {
+		this.changeChiAngle(k, angle - this.getChiAngle(k));
+	}
+
+	/**
+	 * Determines if any atom of the side chain overlaps with the volume.
+	 *
+	 * @param volume The volume to test against.
+	 * @param transformation The transformation from the side chain coordinate system into
+	 * 						 the coordinate system of the volume.
+	 * @return true if an atom overlaps the volume else false.
+	 */
+	public boolean isClashing(BoundingVolume volume, TransformationMatrix transformation) {
+		if (!this.boundingVolume.transform(transformation).isOverlaping(volume))
+			return false;
+
+		for (BoundingVolume atomVolume : this.atomVolumes) {
+			if (atomVolume.transform(transformation).isOverlaping(volume))
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Determines if any atom of the side chain overlaps with any atom of the other side chain.
+	 *
+	 * @param other The other side chain.
+	 * @param transformation The transformation from the other side chains coordinate system
+	 * 						 into the coordinate system of this side chain.
+	 * @return true if any two atoms overlap else false.
+	 */
+	public boolean isClashing(SideChain other, TransformationMatrix transformation) {
+		if (!this.boundingVolume.isOverlaping(other.boundingVolume.transform(transformation)))
+			return false;
+
+		for (BoundingVolume otherVolume : other.atomVolumes) {
+			BoundingVolume volume = otherVolume.transform(transformation);
+
+			if (!this.boundingVolume.isOverlaping(volume))
+				continue;
+
+			for (BoundingVolume atomVolume : this.atomVolumes) {
+				if (atomVolume.isOverlaping(volume))
+					return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Updates the bounding volumes of the side chain.
+	 */
+	private void update() {
+		List<Point3D> points = new ArrayList<Point3D>();
+		this.atomVolumes = new BoundingVolume[this.atoms.length];
+
+		for (int i = 0; i < this.atoms.length; i++) {
+			points.add(this.atoms[i]);
+			this.atomVolumes[i] = new LinesegmentSweptSphere(this.atoms[i], this.atoms[i], CTLeaf.atomRadius/2);
+		}
+
+		this.boundingVolume = new LinesegmentSweptSphere(points);
+	}
+
+	/**
+	 * Returns the position of the atom defining the chi axes at the given remoteness.
+	 *
+	 * @param remoteness The remoteness of the atom (-1 is the backbone nitrogen, 0 the alpha carbon).
+	 * @return The position of the atom or null if there is no such atom.
+	 */
+	private Point3D atom(int remoteness) {
+		if (remoteness == -1)
+			return this.nitrogen;
+
+		if (remoteness == 0)
+			return new Point3D(0.0, 0.0, 0.0);
+
+		int i = this.axisAtom(remoteness);
+
+		return (i == -1) ? null : this.atoms[i];
+	}
+
+	/**
+	 * Returns the index of the first atom with the given remoteness. This is the
+	 * atom on the main branch of the side chain.
+	 *
+	 * @param remoteness The remoteness of the atom.
+	 * @return The index of the atom or -1 if there is no such atom.
+	 */
+	private int axisAtom(int remoteness) {
+		for (int i = 0; i < this.atoms.length; i++) {
+			if (this.remoteness[i] == remoteness)
+				return i;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Are there any atoms moved by the k-th chi angle.
+	 *
+	 * @param k The chi angle (1-indexed).
+	 */
+	private boolean hasMovingAtoms(int k) {
+		for (int r : this.remoteness) {
+			if (r > k)
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * The remoteness of an atom from its PDB name, eg. CB is 1 and OG1 is 2. Atoms
+	 * whose name has no remoteness indicator (eg. hetero atoms) get remoteness 0, so
+	 * they stay fixed to the alpha carbon and are not moved by any chi angle.
+	 *
+	 * @param name The PDB name of the atom.
+	 * @return The remoteness of the atom.
+	 */
+	private static int remoteness(String name) {
+		int remoteness = (name.length() > 1) ? REMOTENESS.indexOf(name.charAt(1)) : -1;
+
+		return Math.max(0, remoteness);
+	}
+}
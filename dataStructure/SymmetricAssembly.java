@@ -0,0 +1,151 @@
+package dataStructure;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import math.Point3D;
+import math.matrix.TransformationMatrix;
+
+/**
+ * A symmetric homo-oligomer represented by a single chain tree and a list of
+ * symmetry operators placing each copy of the chain in the world.
+ *
+ * All copies share the same chain tree, so a rotation of a bond moves every
+ * copy consistently and clash checks between symmetry mates reuse the same
+ * bounding volume hierarchy under different world transformations.
+ */
+public class SymmetricAssembly {
+
+	private ChainTree cTree;						// the chain shared by all copies
+	private List<TransformationMatrix> operators;	// the symmetry operator of each copy
+
+
+
+	/**
+	 * Creates a symmetric assembly from a chain tree and its symmetry operators.
+	 *
+	 * @param cTree The chain tree shared by all copies.
+	 * @param operators The transformation of each copy applied on top of the world
+	 * 					transformation of the chain tree (include the identity for the
+	 * 					original copy).
+	 * @require operators.size() > 0
+	 */
+	public SymmetricAssembly(ChainTree cTree, List<TransformationMatrix> operators) {
+		if (operators.isEmpty()) {
+			throw new IllegalArgumentException("A symmetric assembly needs at least one symmetry operator!");
+		}
+
+		this.cTree = cTree;
+		this.operators = new ArrayList<TransformationMatrix>(operators);
+	}
+
+
+
+	/**
+	 * Returns the chain tree shared by all copies.
+	 *
+	 * @return The chain tree.
+	 */
+	public ChainTree getChainTree() {
+		return this.cTree;
+	}
+
+	/**
+	 * The number of copies in the assembly (the symmetry order).
+	 *
+	 * @return The number of copies.
+	 */
+	public int size() {
+		return this.operators.size();
+	}
+
+	/**
+	 * Returns the symmetry operator of the copy.
+	 *
+	 * @param copy The index of the copy.
+	 * @return The symmetry operator of the copy.
+	 */
+	public TransformationMatrix getOperator(int copy) {
+		return this.operators.get(copy);
+	}
+
+	/**
+	 * Returns the transformation from the chains local coordinates to the world
+	 * for the copy.
+	 *
+	 * @param copy The index of the copy.
+	 * @return The placement of the copy in the world.
+	 */
+	public TransformationMatrix getPlacement(int copy) {
+		return new TransformationMatrix(this.operators.get(copy), this.cTree.worldTransformation);
+	}
+
+	/**
+	 * Returns the absolute position of the backbone atoms of a copy.
+	 *
+	 * @param copy The index of the copy.
+	 * @return The points of the atoms.
+	 */
+	public List<Point3D> getBackboneAtomPositions(int copy) {
+		TransformationMatrix operator = this.operators.get(copy);
+		List<Point3D> points = new ArrayList<Point3D>();
+
+		for (Point3D point : this.cTree.getBackboneAtomPositions()) {
+			points.add(operator.transform(point));
+		}
+
+		return points;
+	}
+
+	/**
+	 * Changes the rotation angle of the i-th bond in every copy.
+	 *
+	 * @param i The index of the bond.
+	 * @param angle The angle to rotate the bond by in radians.
+	 */
+	public void changeRotationAngle(int i, double angle) {
+		this.cTree.changeRotationAngle(i, angle);
+	}
+
+	/**
+	 * Tests the assembly for clashes within a copy or between any two copies.
+	 *
+	 * @return true if the assembly clashes else false.
+	 */
+	public boolean isClashing() {
+		// all copies are identical so a self-clash only has to be checked once
+		if (this.cTree.isClashing())
+			return true;
+
+		// check each pair of symmetry mates
+		TransformationMatrix[] placements = new TransformationMatrix[this.operators.size()];
+
+		for (int i = 0; i < placements.length; i++) {
+			placements[i] = this.getPlacement(i);
+		}
+
+		for (int i = 0; i < placements.length; i++) {
+			for (int j = i+1; j < placements.length; j++) {
+				if (this.cTree.areClashing(this.cTree, placements[i], placements[j]))
+					return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Determines if any copy in the assembly clashes with the other chain tree.
+	 *
+	 * @param other The other chain tree.
+	 * @return true if a clash occurs else false.
+	 */
+	public boolean areClashing(ChainTree other) {
+		for (int i = 0; i < this.operators.size(); i++) {
+			if (this.cTree.areClashing(other, this.getPlacement(i), other.worldTransformation))
+				return true;
+		}
+
+		return false;
+	}
+}
@@ -8,37 +8,179 @@ import math.Point3D;
 
 import dataStructure.ChainTree;
 
-public class AtomDistance implements EnergyFunction {
-	
+/**
+ * The root mean square distance between the backbone atoms of a chain and a set of
+ * target positions.
+ *
+ * The energy is incremental: the squared distances are kept as prefix sums and a
+ * rotation of the i-th bond only invalidates the sums of the atoms moved by it. The
+ * invalid suffix is read from the tree on the next computation.
+ *
+ * The gradient of the atom in the segment at p with target t is (p - t) / (n * E).
+ */
+public class AtomDistance implements IncrementalEnergyFunction, DifferentiableEnergy {
+
 	private ChainTree testing, target;	// the chain trees to compute the energy
 	List<Point3D> targetPoints;
-	
+
+	private int end;					// the last amino acid of the segment
+	private int first;					// the index of the first atom in the segment
+	private double[] partialSums;		// the sum of the squared distances of the atoms before each atom in the segment
+	private int dirty;					// the first atom with an invalid partial sum (the number of atoms if all are valid)
+
+	private boolean isProposing = false;// is a trial move in progress
+	private double proposedEnergy;		// the energy at the time of the proposal
+	private double[] backup;			// the partial sums at the time of the proposal
+	private int backupFrom;				// the first partial sum in the backup
+
 	/**
-	 * 
+	 *
 	 * @param testing
 	 * @param target
 	 */
 	public AtomDistance(ChainTree testing, ChainTree target) {
-		this.testing = testing;
+		this(testing, target.getBackboneAtomPositions(), 1, testing.length());
+
 		this.target = target;
-		
-		// precompute target points
-		this.targetPoints = this.target.getBackboneAtomPositions();
+	}
+
+	/**
+	 * Creates an atom distance over a segment of the chain.
+	 *
+	 * @param testing The chain tree to compute the energy of.
+	 * @param targetPoints The target positions of the atoms in the segment.
+	 * @param start The first amino acid of the segment.
+	 * @param end The last amino acid of the segment.
+	 */
+	protected AtomDistance(ChainTree testing, List<Point3D> targetPoints, int start, int end) {
+		this.testing = testing;
+		this.targetPoints = targetPoints;
+		this.end = end;
+		this.first = testing.getPhi(start);
+
+		this.partialSums = new double[targetPoints.size()+1];
+		this.backup = new double[targetPoints.size()+1];
+		this.dirty = 0;
+
+		// follow the changes of the tree
+		testing.attach(this);
 	}
 
 	@Override
 	public double compute() {
+		int n = this.targetPoints.size();
+
+		if (this.dirty < n) {
+			this.update();
+		}
+
+		return Math.sqrt(this.partialSums[n] / n);
+	}
+
+	@Override
+	public double gradient(double[] positions, double[] gradient) {
+		int n = this.targetPoints.size();
+
 		double sum = 0;
-		
-		List<Point3D> testingPoints = this.testing.getBackboneAtomPositions();
-		
-		for (int i = 0, j = testingPoints.size(); i < j; i++) {	
-			double diff = Math.abs(testingPoints.get(i).distance(this.targetPoints.get(i)));
-			
-			sum += diff * diff;
+		for (int k = 0; k < n; k++) {
+			Point3D target = this.targetPoints.get(k);
+			int a = this.first + k;
+			double dx = positions[3*a] - target.x, dy = positions[3*a+1] - target.y, dz = positions[3*a+2] - target.z;
+
+			sum += dx*dx + dy*dy + dz*dz;
+		}
+
+		double energy = Math.sqrt(sum / n);
+
+		// the gradient is not defined at the minimum
+		if (energy == 0)
+			return 0;
+
+		for (int k = 0; k < n; k++) {
+			Point3D target = this.targetPoints.get(k);
+			int a = this.first + k;
+
+			gradient[3*a]   += (positions[3*a]   - target.x) / (n * energy);
+			gradient[3*a+1] += (positions[3*a+1] - target.y) / (n * energy);
+			gradient[3*a+2] += (positions[3*a+2] - target.z) / (n * energy);
+		}
+
+		return energy;
+	}
+
+	@Override
+	public void onRotation(int bond, double angle) {
+		// the atoms after the bond are moved (the entire chain if moved in the world)
+		int moved = (bond < 0) ? 0 : Math.max(0, bond + 2 - this.first);
+
+		if (moved < this.dirty) {
+			this.dirty = moved;
 		}
+	}
+
+	@Override
+	public void propose() {
+		this.proposedEnergy = this.compute();
+		this.backupFrom = this.partialSums.length;
+		this.isProposing = true;
+	}
+
+	@Override
+	public void accept() {
+		this.isProposing = false;
+	}
+
+	@Override
+	public void reject() {
+		if (!this.isProposing) {
+			throw new IllegalArgumentException("No move has been proposed!");
+		}
+
+		// the tree has restored the conformation of the proposal
+		for (int k = this.backupFrom; k < this.partialSums.length; k++) {
+			this.partialSums[k] = this.backup[k];
+		}
+
+		this.dirty = this.targetPoints.size();
+		this.isProposing = false;
+	}
 
-		return Math.sqrt(sum / testingPoints.size());
+	@Override
+	public double delta() {
+		return this.compute() - this.proposedEnergy;
 	}
 
+	/**
+	 * Reads the invalid suffix of the segment from the tree and updates its partial sums.
+	 */
+	private void update() {
+		int n = this.targetPoints.size();
+
+		// read from the first atom of the amino acid containing the first invalid atom
+		int aminoAcid = this.testing.getAminoAcid(this.first + this.dirty);
+		int k = this.testing.getPhi(aminoAcid) - this.first;
+
+		// remember the partial sums of the proposal before they are overwritten
+		if (this.isProposing && k+1 < this.backupFrom) {
+			for (int l = k+1; l < this.backupFrom; l++) {
+				this.backup[l] = this.partialSums[l];
+			}
+
+			this.backupFrom = k+1;
+		}
+
+		List<Point3D> points = this.testing.getBackboneAtomPositions(aminoAcid, this.end);
+
+		for (Point3D point : points) {
+			if (k == n)
+				break;
+
+			double diff = point.distance(this.targetPoints.get(k));
+
+			this.partialSums[k+1] = this.partialSums[k] + diff * diff;
+			k++;
+		}
+
+		this.dirty = n;
+	}
 }
@@ -8,6 +8,11 @@ import math.Point3D;
 
 import dataStructure.ChainTree;
 
+/**
+ * The compactness of a chain measured as the radius of gyration of its backbone atoms.
+ * The moments needed are maintained in the nodes of the chain tree, so the energy is 
+ * computed in constant time after each rotation.
+ */
 public class Compactness implements EnergyFunction {
 	
 	private ChainTree cTree;
@@ -19,10 +24,19 @@ public class Compactness implements EnergyFunction {
 
 	@Override
 	public double compute() {
-		List<Point3D> points = this.cTree.getBackboneAtomPositions();
-		
-		return 0;
+		return this.cTree.getRadiusOfGyration();
 	}
 	
+	/**
+	 * Computes the asphericity of the chain from the eigenvalues l1 >= l2 >= l3 of the 
+	 * gyration tensor as l1 - (l2 + l3)/2. It is 0 for a spherically symmetric chain.
+	 * 
+	 * @return The asphericity of the chain.
+	 */
+	public double asphericity() {
+		double[] eigenvalues = this.cTree.getGyrationTensor().eigenvalues();
+		
+		return eigenvalues[0] - (eigenvalues[1] + eigenvalues[2]) / 2;
+	}
 
 }
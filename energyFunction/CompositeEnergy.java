@@ -0,0 +1,162 @@
+package energyFunction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A weighted sum of energy functions.
+ *
+ * Each term is annotated with the cost of computing it and optionally a lower bound
+ * on its value. The terms are computed cheapest first, and when the energy is only
+ * needed below a threshold the computation stops as soon as the partial sum plus the
+ * lower bounds of the remaining terms reaches the threshold. Expensive terms are then
+ * never computed for conformations that are rejected anyway.
+ */
+public class CompositeEnergy implements EnergyFunction {
+
+	private List<Term> terms = new ArrayList<Term>();	// the terms sorted by increasing cost
+	private double[] remainingBounds = { 0 };			// the sum of the weighted lower bounds of the terms from each term onwards
+
+	private long computations = 0;						// the number of computations against a threshold
+	private long shortCircuits = 0;						// the number of computations stopped before the last term
+
+
+
+	/**
+	 * Adds a term without a lower bound.
+	 *
+	 * @param energyFunction The energy function of the term.
+	 * @param weight The weight of the term.
+	 * @param cost The relative cost of computing the term.
+	 */
+	public void add(EnergyFunction energyFunction, double weight, double cost) {
+		this.add(energyFunction, weight, cost, Double.NEGATIVE_INFINITY);
+	}
+
+	/**
+	 * Adds a term.
+	 *
+	 * @param energyFunction The energy function of the term.
+	 * @param weight The weight of the term.
+	 * @param cost The relative cost of computing the term.
+	 * @param lowerBound A lower bound on the value of the energy function (before weighting)
+	 * 					 or Double.NEGATIVE_INFINITY if none is known.
+	 */
+	public void add(EnergyFunction energyFunction, double weight, double cost, double lowerBound) {
+		Term term = new Term(energyFunction, weight, cost, lowerBound);
+
+		// keep the terms sorted by cost
+		int i = 0;
+		while (i < this.terms.size() && this.terms.get(i).cost <= cost) {
+			i++;
+		}
+
+		this.terms.add(i, term);
+
+		// recompute the remaining bounds
+		this.remainingBounds = new double[this.terms.size()+1];
+
+		for (int j = this.terms.size()-1; j >= 0; j--) {
+			this.remainingBounds[j] = this.remainingBounds[j+1] + this.terms.get(j).bound();
+		}
+	}
+
+	/**
+	 * The number of terms.
+	 *
+	 * @return The number of terms in the sum.
+	 */
+	public int size() {
+		return this.terms.size();
+	}
+
+	@Override
+	public double compute() {
+		double sum = 0;
+
+		for (Term term : this.terms) {
+			sum += term.weight * term.energyFunction.compute();
+		}
+
+		return sum;
+	}
+
+	/**
+	 * Computes the energy if it is below the threshold. The terms are computed cheapest
+	 * first and the computation stops when the partial sum plus the lower bounds of the
+	 * remaining terms reaches the threshold.
+	 *
+	 * @param threshold The energy above which the exact value is not needed.
+	 * @return The energy if it is below the threshold else a lower bound on the energy
+	 * 		   that is at least the threshold.
+	 */
+	public double compute(double threshold) {
+		this.computations++;
+
+		double sum = 0;
+
+		for (int i = 0; i < this.terms.size(); i++) {
+			// the remaining terms can not bring the energy below the threshold
+			if (sum + this.remainingBounds[i] >= threshold) {
+				this.shortCircuits++;
+				return sum + this.remainingBounds[i];
+			}
+
+			Term term = this.terms.get(i);
+
+			sum += term.weight * term.energyFunction.compute();
+		}
+
+		return sum;
+	}
+
+	/**
+	 * The number of computations against a threshold.
+	 *
+	 * @return The number of calls to compute(threshold).
+	 */
+	public long getComputations() {
+		return this.computations;
+	}
+
+	/**
+	 * The number of computations against a threshold that stopped before all terms
+	 * were computed.
+	 *
+	 * @return The number of short-circuited computations.
+	 */
+	public long getShortCircuits() {
+		return this.shortCircuits;
+	}
+
+	/**
+	 * A weighted term of the sum.
+	 */
+	private static class Term {
+		EnergyFunction energyFunction;	// the energy function of the term
+		double weight;					// the weight of the term
+		double cost;					// the relative cost of computing the term
+		double lowerBound;				// the lower bound on the energy function
+
+		Term(EnergyFunction energyFunction, double weight, double cost, double lowerBound) {
+			this.energyFunction = energyFunction;
+			this.weight = weight;
+			this.cost = cost;
+			this.lowerBound = lowerBound;
+		}
+
+		/**
+		 * The lower bound on the weighted value of the term.
+		 */
+		double bound() {
+			if (this.weight == 0)
+				return 0;
+
+			// a negative weight turns the lower bound into an upper bound
+			if (this.weight < 0 || this.lowerBound == Double.NEGATIVE_INFINITY)
+				return Double.NEGATIVE_INFINITY;
+
+			return this.weight * this.lowerBound;
+		}
+	}
+}
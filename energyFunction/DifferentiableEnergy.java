@@ -0,0 +1,21 @@
+package energyFunction;
+
+/**
+ * An energy function of the positions of the backbone atoms that can compute its
+ * gradient with respect to each atom position. The chain tree turns the atom gradient
+ * into the gradient with respect to the dihedral angles (see ChainTree.energyGradient).
+ */
+public interface DifferentiableEnergy extends EnergyFunction {
+
+	/**
+	 * Computes the energy and adds its gradient with respect to the world position of 
+	 * each backbone atom.
+	 *
+	 * @param positions The world positions of all backbone atoms of the chain as computed
+	 * 					by the chain tree. The i-th atom is at the indices 3i, 3i+1 and 3i+2.
+	 * @param gradient The array to add the gradient to. The gradient of the i-th atom is 
+	 * 				   at the indices 3i, 3i+1 and 3i+2.
+	 * @return The energy.
+	 */
+	public double gradient(double[] positions, double[] gradient);
+}
@@ -1,48 +1,136 @@
 package energyFunction;
 
-import java.util.List;
+import java.util.Arrays;
 
 import dataStructure.ChainTree;
 
-public class DihedralAngles implements EnergyFunction {
+/**
+ * The root mean square difference between the dihedral angles of a chain and a target.
+ * 
+ * The dihedral angles are maintained in the leaves of the chain tree and a rotation
+ * only changes the angle of the rotated bond, so the sum of the squared differences 
+ * is updated in constant time per rotation.
+ */
+public class DihedralAngles implements IncrementalEnergyFunction {
 	
 	private ChainTree testing, target;
-	private List<Double> targetAngles;
+	private double[] targetAngles;
+	
+	private double[] squaredDiffs;			// the squared difference of the angle of each bond
+	private double sum;						// the sum of the squared differences
+	
+	private boolean isProposing = false;	// is a trial move in progress
+	private double proposedEnergy;			// the energy at the time of the proposal
+	
+	private int[] changedBonds = new int[16];			// the bonds rotated since the proposal
+	private double[] oldSquaredDiffs = new double[16];	// their squared differences at the time of the proposal
+	private int changeCount;							// the number of rotations since the proposal
 
 	public DihedralAngles(ChainTree testing, ChainTree target) {
 		this.testing = testing;
 		this.target = target;
 		
-		this.targetAngles = target.getDihedralAngles();
+		this.targetAngles = new double[target.backboneBonds.length];
+		target.getDihedralAngles(this.targetAngles);
+		
+		// compute the initial sum
+		this.squaredDiffs = new double[testing.backboneBonds.length];
+		this.sum = 0;
+		
+		for (int i = 0; i < this.squaredDiffs.length; i++) {
+			double diff = this.getAngleDiff(testing.getDihedralAngle(i), this.targetAngles[i]);
+			
+			this.squaredDiffs[i] = diff * diff;
+			this.sum += this.squaredDiffs[i];
+		}
+		
+		// follow the changes of the tree
+		testing.attach(this);
 	}
 	
 	@Override
 	public double compute() {
-		List<Double> testingAngles = this.testing.getDihedralAngles();
+		return Math.sqrt(Math.max(0, this.sum) / this.squaredDiffs.length);
+	}
+	
+	@Override
+	public void onRotation(int bond, double angle) {
+		// moving the entire chain does not change any angles
+		if (bond < 0)
+			return;
+		
+		double diff = this.getAngleDiff(this.testing.getDihedralAngle(bond), this.targetAngles[bond]);
+		
+		if (this.isProposing) {
+			if (this.changeCount == this.changedBonds.length) {
+				this.changedBonds = Arrays.copyOf(this.changedBonds, 2 * this.changeCount);
+				this.oldSquaredDiffs = Arrays.copyOf(this.oldSquaredDiffs, 2 * this.changeCount);
+			}
+			
+			this.changedBonds[this.changeCount] = bond;
+			this.oldSquaredDiffs[this.changeCount] = this.squaredDiffs[bond];
+			this.changeCount++;
+		}
 		
-		double sum = 0;
+		this.sum += diff * diff - this.squaredDiffs[bond];
+		this.squaredDiffs[bond] = diff * diff;
+	}
+
+	@Override
+	public void propose() {
+		this.proposedEnergy = this.compute();
+		this.changeCount = 0;
+		this.isProposing = true;
+	}
+
+	@Override
+	public void accept() {
+		this.changeCount = 0;
+		this.isProposing = false;
+	}
+
+	@Override
+	public void reject() {
+		if (!this.isProposing) {
+			throw new IllegalArgumentException("No move has been proposed!");
+		}
 		
-		for (int i = 0, j = testingAngles.size(); i < j; i++) {
-			double diff = this.getAngleDiff(testingAngles.get(i), this.targetAngles.get(i));
+		// the tree has restored the angles of the proposal
+		for (int k = this.changeCount-1; k >= 0; k--) {
+			int bond = this.changedBonds[k];
 			
-			sum += diff * diff;
+			this.sum += this.oldSquaredDiffs[k] - this.squaredDiffs[bond];
+			this.squaredDiffs[bond] = this.oldSquaredDiffs[k];
 		}
 		
-		return Math.sqrt(sum / testingAngles.size());
+		this.changeCount = 0;
+		this.isProposing = false;
+	}
+
+	@Override
+	public double delta() {
+		return this.compute() - this.proposedEnergy;
 	}
 	
+	/**
+	 * The smallest difference between two angles.
+	 * 
+	 * @param a An angle in radians.
+	 * @param b An angle in radians.
+	 * @return The absolute difference between the angles in [0, pi].
+	 */
 	private double getAngleDiff(double a, double b) {
 		double pi = Math.PI;
-		double pipi = pi * pi;
+		double twoPi = 2 * pi;
 		
-		while (a > pi) a -= pipi;
-		while (a <= -pi) a += pipi;
-		while (b > pi) b -= pipi;
-		while (b <= -pi) b += pipi;
+		while (a > pi) a -= twoPi;
+		while (a <= -pi) a += twoPi;
+		while (b > pi) b -= twoPi;
+		while (b <= -pi) b += twoPi;
 		if (a*b >= 0.0) return Math.abs(a-b);
 		else {
 			double sum = Math.abs(a) + Math.abs(b);
-			if (sum <= pi) return sum; else return pipi - sum;
+			if (sum <= pi) return sum; else return twoPi - sum;
 		}
 	}
 }
@@ -23,12 +23,13 @@ public class EndAtomDistance implements EnergyFunction {
 		this.target = target;
 		
 		// precompute target points
-		this.targetPoint = this.target.getBackboneAtomPositions().get(this.target.length());
+		// NOTE: the atom with index length() is used as before, not the last atom of the chain
+		this.targetPoint = this.target.getAtomPosition(this.target.length());
 	}
 
 	@Override
 	public double compute() {
-		return this.testing.getBackboneAtomPositions().get(this.testing.length()).distance(this.targetPoint);
+		return this.testing.getAtomPosition(this.testing.length()).distance(this.targetPoint);
 	}
 
 }
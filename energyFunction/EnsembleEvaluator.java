@@ -0,0 +1,218 @@
+package energyFunction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import dataStructure.ChainTree;
+
+/**
+ * Evaluates ensembles of conformations of a chain in parallel.
+ *
+ * Each worker owns a replica of the chain tree and its energy function, which are
+ * created once with the evaluator, so no tree is shared between threads. A batch of
+ * conformations, given by the dihedral angles of a set of bonds, is split evenly between
+ * the workers. A worker sets the angles of a conformation on its replica as a trial move,
+ * tests it for clashes, computes its energy and rejects the move, which returns the
+ * replica to the conformation of the template for the next conformation. The result of a
+ * conformation therefore only depends on the conformations evaluated before it by the
+ * rounding errors of the undone rotations.
+ */
+public class EnsembleEvaluator {
+
+	/**
+	 * Creates the energy function of a replica. The factory may also prepare the replica,
+	 * eg. by excluding bounding volumes from the clash test, before the energy is created.
+	 * It is called once for each replica when the evaluator is created.
+	 */
+	public static interface EnergyFactory {
+
+		/**
+		 * Creates the energy function of a replica.
+		 *
+		 * @param replica The replica of the template chain tree.
+		 * @return The energy function computing the energy of the replica.
+		 */
+		public EnergyFunction create(ChainTree replica);
+	}
+
+	private ChainTree[] replicas;					// the replica of the chain tree of each worker
+	private EnergyFunction[] energyFunctions;		// the energy function of each replica
+	private int threads;							// the number of workers
+	private ChainTree other;						// a chain tree to test for clashes against (null if none)
+	private ExecutorService executor;				// the pool of workers
+	private boolean ownsExecutor;					// is the pool shut down with the evaluator
+
+
+
+	/**
+	 * Creates an evaluator with one worker per available processor.
+	 *
+	 * @param template The chain tree to replicate (in the conformation the energy functions are created in).
+	 * @param other A chain tree the conformations must not clash with or null if none.
+	 * @param factory The factory creating the energy function of each replica.
+	 */
+	public EnsembleEvaluator(ChainTree template, ChainTree other, EnergyFactory factory) {
+		this(template, other, factory, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates an evaluator with its own pool of worker threads.
+	 *
+	 * @param template The chain tree to replicate (in the conformation the energy functions are created in).
+	 * 				It is copied, so later changes to it do not affect the evaluator.
+	 * @param other A chain tree the conformations must not clash with or null if none. It is
+	 * 				shared by all workers and must not be changed during an evaluation.
+	 * @param factory The factory creating the energy function of each replica.
+	 * @param threads The number of worker threads.
+	 */
+	public EnsembleEvaluator(ChainTree template, ChainTree other, EnergyFactory factory, int threads) {
+		// the workers must not keep the program alive
+		this(template, other, factory, Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable);
+				thread.setDaemon(true);
+				
+				return thread;
+			}
+		}), threads);
+
+		this.ownsExecutor = true;
+	}
+
+	/**
+	 * Creates an evaluator on a shared pool of worker threads. The pool is not shut down
+	 * with the evaluator.
+	 *
+	 * @param template The chain tree to replicate (in the conformation the energy functions are created in).
+	 * 				It is copied, so later changes to it do not affect the evaluator.
+	 * @param other A chain tree the conformations must not clash with or null if none. It is
+	 * 				shared by all workers and must not be changed during an evaluation.
+	 * @param factory The factory creating the energy function of each replica.
+	 * @param executor The worker threads.
+	 * @param threads The number of parts a batch is split into (usually the number of worker threads).
+	 */
+	public EnsembleEvaluator(ChainTree template, ChainTree other, EnergyFactory factory, ExecutorService executor, int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one thread is needed!");
+		}
+
+		this.replicas = new ChainTree[threads];
+		this.energyFunctions = new EnergyFunction[threads];
+
+		for (int worker = 0; worker < threads; worker++) {
+			this.replicas[worker] = template.getSubchain(1, template.length());
+			this.energyFunctions[worker] = factory.create(this.replicas[worker]);
+		}
+
+		this.threads = threads;
+		this.other = other;
+		this.executor = executor;
+		this.ownsExecutor = false;
+	}
+
+
+
+	/**
+	 * Evaluates a batch of conformations.
+	 *
+	 * Only the clashes caused by the given bonds are detected (see ChainTree.isClashing),
+	 * and the energy is only computed for conformations that do not clash. As the workers
+	 * reuse their replicas, batches must not be evaluated concurrently.
+	 *
+	 * @param bonds The bonds defining the conformations.
+	 * @param angles The dihedral angles of the bonds in each conformation.
+	 * @param energies The array to store the energy of each conformation in (NaN if clashing).
+	 * @param clashes The array to store if each conformation clashes in.
+	 * @require energies.length >= angles.length && clashes.length >= angles.length
+	 */
+	public void evaluate(final int[] bonds, final double[][] angles, final double[] energies, final boolean[] clashes) {
+		int workers = this.threads;
+		int chunk = (angles.length + workers - 1) / workers;
+
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+
+		for (int worker = 0; worker < workers && worker * chunk < angles.length; worker++) {
+			final int from = worker * chunk;
+			final int to = Math.min(angles.length, from + chunk);
+			final ChainTree replica = this.replicas[worker];
+			final EnergyFunction energyFunction = this.energyFunctions[worker];
+
+			futures.add(this.executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = from; i < to; i++) {
+						evaluate(replica, energyFunction, bonds, angles[i], energies, clashes, i);
+					}
+				}
+			}));
+		}
+
+		// wait for all workers
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("The evaluation was interrupted!", e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException("The evaluation failed!", e.getCause());
+			}
+		}
+	}
+
+	/**
+	 * Evaluates a single conformation on a replica and returns the replica to the
+	 * conformation it had before.
+	 *
+	 * @param replica The replica of the worker.
+	 * @param energyFunction The energy function of the replica.
+	 * @param bonds The bonds defining the conformation.
+	 * @param angles The dihedral angles of the bonds.
+	 * @param energies The array to store the energy in.
+	 * @param clashes The array to store the clash flag in.
+	 * @param i The index of the conformation.
+	 */
+	private void evaluate(ChainTree replica, EnergyFunction energyFunction, int[] bonds, double[] angles, double[] energies, boolean[] clashes, int i) {
+		replica.propose();
+
+		for (int k = 0; k < bonds.length; k++) {
+			replica.setRotationAngle(bonds[k], angles[k]);
+		}
+
+		clashes[i] = replica.isClashing() || (this.other != null && replica.areClashing(this.other));
+		energies[i] = clashes[i] ? Double.NaN : energyFunction.compute();
+
+		replica.reject();
+	}
+
+	/**
+	 * The number of worker threads.
+	 *
+	 * @return The number of workers.
+	 */
+	public int getThreads() {
+		return this.threads;
+	}
+
+	/**
+	 * Stops the worker threads unless the pool is shared and detaches the energy functions
+	 * from the replicas. The evaluator can not be used afterwards.
+	 */
+	public void shutdown() {
+		if (this.ownsExecutor) {
+			this.executor.shutdown();
+		}
+
+		for (int worker = 0; worker < this.threads; worker++) {
+			if (this.energyFunctions[worker] instanceof IncrementalEnergyFunction) {
+				this.replicas[worker].detach((IncrementalEnergyFunction) this.energyFunctions[worker]);
+			}
+		}
+	}
+}
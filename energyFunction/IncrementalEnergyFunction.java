@@ -0,0 +1,48 @@
+package energyFunction;
+
+/**
+ * An energy function that is notified by the chain tree about every bond rotation
+ * so it can update only the part of the energy affected by the rotation instead of
+ * reading the entire chain on each computation.
+ *
+ * A trial move is bracketed by propose() and either accept() or reject(). On a
+ * rejection the chain tree restores its conformation at the time of the proposal
+ * without notifying the energy function of the reverse rotations, so the energy
+ * function must restore its own state from the proposal as well.
+ *
+ * The implementations attach themselves to the tree they are created on. Once such an
+ * energy function is no longer used it must be detached (see ChainTree.detach), or the
+ * tree keeps notifying it of every rotation.
+ */
+public interface IncrementalEnergyFunction extends EnergyFunction {
+
+	/**
+	 * Called by the chain tree after a bond has been rotated.
+	 *
+	 * @param bond The index of the rotated bond or -1 if the entire chain has been moved in the world.
+	 * @param angle The angle the bond has been rotated by in radians.
+	 */
+	public void onRotation(int bond, double angle);
+
+	/**
+	 * Starts a trial move from the current conformation.
+	 */
+	public void propose();
+
+	/**
+	 * Keeps the conformation of the trial move.
+	 */
+	public void accept();
+
+	/**
+	 * Discards the trial move and returns to the state at the time of the proposal.
+	 */
+	public void reject();
+
+	/**
+	 * The change in energy since the trial move was proposed.
+	 *
+	 * @return The energy of the current conformation minus the energy at the time of the proposal.
+	 */
+	public double delta();
+}
@@ -0,0 +1,216 @@
+package energyFunction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import math.Tuple2;
+
+import dataStructure.ChainTree;
+
+/**
+ * A Go-model energy counting the native contacts of a reference structure that are
+ * broken in the chain. A contact is a pair of amino acids whose alpha carbons are
+ * within a cutoff distance in the reference, and it is formed when the distance in the
+ * chain is at most a tolerance factor times the native distance.
+ *
+ * The contacts are found with a distance query on the bounding volumes of the
+ * reference tree. A rotation only changes the distances of the contacts spanning the
+ * rotated bond, so only those are recomputed on the next computation.
+ */
+public class NativeContacts implements IncrementalEnergyFunction {
+
+	public static double DEFAULT_CUTOFF = 8.0;		// the default contact distance between alpha carbons
+	public static int DEFAULT_MIN_SEPARATION = 3;	// the default minimal separation of the amino acids in a contact
+	public static double TOLERANCE = 1.2;			// the factor on the native distance within which a contact is formed
+
+	private ChainTree testing;						// the chain tree to compute the energy of
+	private int[] first, second;					// the alpha carbon atoms of each contact (first < second)
+	private double[] nativeDistances;				// the distance of each contact in the reference
+	private boolean[] isFormed;						// is each contact formed in the chain
+	private int broken;								// the number of broken contacts
+
+	private List<Integer> rotatedBonds = new ArrayList<Integer>();	// the bonds rotated since the last computation
+
+	private boolean isProposing = false;			// is a trial move in progress
+	private double proposedEnergy;					// the energy at the time of the proposal
+	private List<Integer> flipped = new ArrayList<Integer>();	// the contacts changed since the proposal
+
+	private double[] position1 = new double[3];		// buffers for atom positions
+	private double[] position2 = new double[3];
+
+	/**
+	 * Creates the energy with the default cutoff and minimal separation.
+	 *
+	 * @param testing The chain tree to compute the energy of.
+	 * @param reference The chain tree with the native structure.
+	 */
+	public NativeContacts(ChainTree testing, ChainTree reference) {
+		this(testing, reference, DEFAULT_CUTOFF, DEFAULT_MIN_SEPARATION);
+	}
+
+	/**
+	 * Creates the energy from the native contacts of the reference.
+	 *
+	 * @param testing The chain tree to compute the energy of.
+	 * @param reference The chain tree with the native structure.
+	 * @param cutoff The maximal distance between the alpha carbons of a contact.
+	 * @param minSeparation The minimal difference between the indices of the amino acids in a contact.
+	 */
+	public NativeContacts(ChainTree testing, ChainTree reference, double cutoff, int minSeparation) {
+		this.testing = testing;
+
+		List<Tuple2<Integer,Integer>> contacts = reference.getResiduePairsWithin(cutoff, minSeparation);
+
+		this.first = new int[contacts.size()];
+		this.second = new int[contacts.size()];
+		this.nativeDistances = new double[contacts.size()];
+		this.isFormed = new boolean[contacts.size()];
+
+		int k = 0;
+		for (Tuple2<Integer,Integer> contact : contacts) {
+			this.first[k] = reference.getPsi(contact.x);
+			this.second[k] = reference.getPsi(contact.y);
+			this.nativeDistances[k] = reference.getAtomPosition(this.first[k]).distance(reference.getAtomPosition(this.second[k]));
+
+			k++;
+		}
+
+		// compute the initial state
+		this.broken = 0;
+
+		for (k = 0; k < this.isFormed.length; k++) {
+			this.isFormed[k] = this.isFormedNow(k);
+
+			if (!this.isFormed[k])
+				this.broken++;
+		}
+
+		// follow the changes of the tree
+		testing.attach(this);
+	}
+
+	/**
+	 * Computes the fraction of the native contacts that are broken.
+	 *
+	 * @return The fraction of broken contacts (0 if all native contacts are formed).
+	 */
+	@Override
+	public double compute() {
+		if (!this.rotatedBonds.isEmpty()) {
+			this.update();
+		}
+
+		return (this.isFormed.length == 0) ? 0 : (double) this.broken / this.isFormed.length;
+	}
+
+	/**
+	 * The number of native contacts.
+	 *
+	 * @return The number of contacts in the reference.
+	 */
+	public int getContactCount() {
+		return this.isFormed.length;
+	}
+
+	/**
+	 * The number of native contacts formed in the chain.
+	 *
+	 * @return The number of formed contacts.
+	 */
+	public int getFormedContacts() {
+		this.compute();
+
+		return this.isFormed.length - this.broken;
+	}
+
+	@Override
+	public void onRotation(int bond, double angle) {
+		// moving the entire chain does not change any distances
+		if (bond >= 0) {
+			this.rotatedBonds.add(bond);
+		}
+	}
+
+	@Override
+	public void propose() {
+		this.proposedEnergy = this.compute();
+		this.flipped.clear();
+		this.isProposing = true;
+	}
+
+	@Override
+	public void accept() {
+		this.flipped.clear();
+		this.isProposing = false;
+	}
+
+	@Override
+	public void reject() {
+		if (!this.isProposing) {
+			throw new IllegalArgumentException("No move has been proposed!");
+		}
+
+		// the tree has restored the conformation of the proposal
+		for (int k : this.flipped) {
+			this.isFormed[k] = !this.isFormed[k];
+			this.broken += this.isFormed[k] ? -1 : 1;
+		}
+
+		this.flipped.clear();
+		this.rotatedBonds.clear();
+		this.isProposing = false;
+	}
+
+	@Override
+	public double delta() {
+		return this.compute() - this.proposedEnergy;
+	}
+
+	/**
+	 * Recomputes the contacts spanning a bond rotated since the last computation.
+	 */
+	private void update() {
+		int[] bonds = new int[this.rotatedBonds.size()];
+
+		for (int i = 0; i < bonds.length; i++) {
+			bonds[i] = this.rotatedBonds.get(i);
+		}
+
+		Arrays.sort(bonds);
+		this.rotatedBonds.clear();
+
+		for (int k = 0; k < this.isFormed.length; k++) {
+			if (!ChainTree.isSpanned(this.first[k], this.second[k], bonds))
+				continue;
+
+			boolean isFormed = this.isFormedNow(k);
+
+			if (isFormed != this.isFormed[k]) {
+				this.isFormed[k] = isFormed;
+				this.broken += isFormed ? -1 : 1;
+
+				if (this.isProposing) {
+					this.flipped.add(k);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Is the contact formed in the current conformation of the chain.
+	 *
+	 * @param k The contact.
+	 */
+	private boolean isFormedNow(int k) {
+		this.testing.getAtomPosition(this.first[k], this.position1);
+		this.testing.getAtomPosition(this.second[k], this.position2);
+
+		double dx = this.position1[0] - this.position2[0];
+		double dy = this.position1[1] - this.position2[1];
+		double dz = this.position1[2] - this.position2[2];
+		double limit = TOLERANCE * this.nativeDistances[k];
+
+		return dx*dx + dy*dy + dz*dz <= limit*limit;
+	}
+}
@@ -0,0 +1,243 @@
+package energyFunction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import math.Tuple2;
+
+import tool.PairPotentialTable;
+import chemestry.AminoAcid;
+import dataStructure.ChainTree;
+
+/**
+ * A knowledge-based pairwise energy summing a pair potential table over all pairs of
+ * amino acids whose alpha carbons are within the cutoff of the table.
+ *
+ * The interacting pairs are found with a distance query on the bounding volumes of
+ * the tree. A rotation only changes the distances of the pairs spanning the rotated
+ * bond, so on the next computation only the interactions of those pairs are removed
+ * and the spanning pairs now within the cutoff are found by a query restricted to
+ * the node pairs spanning a rotated bond.
+ */
+public class PairPotential implements IncrementalEnergyFunction {
+
+	public static int DEFAULT_MIN_SEPARATION = 3;	// the default minimal separation of interacting amino acids
+
+	private ChainTree testing;						// the chain tree to compute the energy of
+	private PairPotentialTable table;				// the potential of each pair of types and distance
+	private int minSeparation;						// the minimal separation of interacting amino acids
+	private int[] types;							// the type index of each amino acid (index 0 is amino acid 1)
+
+	private int count;								// the number of interacting pairs
+	private int[] first = new int[16];				// the first amino acid of each interacting pair
+	private int[] second = new int[16];				// the second amino acid of each interacting pair
+	private double[] energies = new double[16];		// the potential of each interacting pair
+	private double energy;							// the sum of the potentials
+
+	private List<Integer> rotatedBonds = new ArrayList<Integer>();	// the bonds rotated since the last computation
+
+	private boolean isProposing = false;			// is a trial move in progress
+	private double proposedEnergy;					// the energy at the time of the proposal
+	private int backupCount;						// the interacting pairs at the time of the proposal
+	private int[] backupFirst = new int[0];
+	private int[] backupSecond = new int[0];
+	private double[] backupEnergies = new double[0];
+
+	private double[] position1 = new double[3];		// buffers for atom positions
+	private double[] position2 = new double[3];
+
+
+
+	/**
+	 * Creates the energy with the default minimal separation.
+	 *
+	 * @param testing The chain tree to compute the energy of.
+	 * @param table The pair potential.
+	 */
+	public PairPotential(ChainTree testing, PairPotentialTable table) {
+		this(testing, table, DEFAULT_MIN_SEPARATION);
+	}
+
+	/**
+	 * Creates the energy.
+	 *
+	 * @param testing The chain tree to compute the energy of.
+	 * @param table The pair potential.
+	 * @param minSeparation The minimal difference between the indices of interacting amino acids.
+	 */
+	public PairPotential(ChainTree testing, PairPotentialTable table, int minSeparation) {
+		this.testing = testing;
+		this.table = table;
+		this.minSeparation = minSeparation;
+		this.types = new int[testing.length()];
+
+		for (int i = 0; i < this.types.length; i++) {
+			this.types[i] = AminoAcid.typeToInt(testing.getAminoAcidType(i+1));
+		}
+
+		// compute the initial state
+		this.energy = 0;
+		this.addPairs(null);
+
+		// follow the changes of the tree
+		testing.attach(this);
+	}
+
+	@Override
+	public double compute() {
+		if (!this.rotatedBonds.isEmpty()) {
+			this.update();
+		}
+
+		return this.energy;
+	}
+
+	/**
+	 * The number of interacting pairs.
+	 *
+	 * @return The number of pairs within the cutoff.
+	 */
+	public int getPairCount() {
+		this.compute();
+
+		return this.count;
+	}
+
+	@Override
+	public void onRotation(int bond, double angle) {
+		// moving the entire chain does not change any distances
+		if (bond >= 0) {
+			this.rotatedBonds.add(bond);
+		}
+	}
+
+	@Override
+	public void propose() {
+		this.proposedEnergy = this.compute();
+
+		// the backups become the pairs on a rejection, so they must be as large
+		if (this.backupFirst.length < this.first.length) {
+			this.backupFirst = new int[this.first.length];
+			this.backupSecond = new int[this.first.length];
+			this.backupEnergies = new double[this.first.length];
+		}
+
+		System.arraycopy(this.first, 0, this.backupFirst, 0, this.count);
+		System.arraycopy(this.second, 0, this.backupSecond, 0, this.count);
+		System.arraycopy(this.energies, 0, this.backupEnergies, 0, this.count);
+		this.backupCount = this.count;
+
+		this.isProposing = true;
+	}
+
+	@Override
+	public void accept() {
+		this.isProposing = false;
+	}
+
+	@Override
+	public void reject() {
+		if (!this.isProposing) {
+			throw new IllegalArgumentException("No move has been proposed!");
+		}
+
+		// the tree has restored the conformation of the proposal
+		int[] first = this.first, second = this.second;
+		double[] energies = this.energies;
+
+		this.first = this.backupFirst;
+		this.second = this.backupSecond;
+		this.energies = this.backupEnergies;
+		this.count = this.backupCount;
+		this.energy = this.proposedEnergy;
+
+		this.backupFirst = first;
+		this.backupSecond = second;
+		this.backupEnergies = energies;
+
+		this.rotatedBonds.clear();
+		this.isProposing = false;
+	}
+
+	@Override
+	public double delta() {
+		return this.compute() - this.proposedEnergy;
+	}
+
+	/**
+	 * Replaces the interactions of the pairs spanning a bond rotated since the last
+	 * computation.
+	 */
+	private void update() {
+		int[] bonds = new int[this.rotatedBonds.size()];
+
+		for (int i = 0; i < bonds.length; i++) {
+			bonds[i] = this.rotatedBonds.get(i);
+		}
+
+		Arrays.sort(bonds);
+		this.rotatedBonds.clear();
+
+		// remove the spanning pairs
+		int k = 0;
+		while (k < this.count) {
+			if (ChainTree.isSpanned(this.testing.getPsi(this.first[k]), this.testing.getPsi(this.second[k]), bonds)) {
+				this.energy -= this.energies[k];
+				this.count--;
+
+				this.first[k] = this.first[this.count];
+				this.second[k] = this.second[this.count];
+				this.energies[k] = this.energies[this.count];
+			} else {
+				k++;
+			}
+		}
+
+		// add the spanning pairs within the cutoff
+		this.addPairs(bonds);
+	}
+
+	/**
+	 * Adds the interactions of the pairs within the cutoff that span one of the bonds.
+	 *
+	 * @param bonds The rotated bonds in increasing order or null for all pairs.
+	 */
+	private void addPairs(int[] bonds) {
+		for (Tuple2<Integer,Integer> pair : this.testing.getResiduePairsWithin(this.table.getCutoff(), this.minSeparation, bonds)) {
+			double energy = this.table.get(this.types[pair.x-1], this.types[pair.y-1], this.distance(pair.x, pair.y));
+
+			if (this.count == this.first.length) {
+				int length = Math.max(16, 2 * this.count);
+
+				this.first = Arrays.copyOf(this.first, length);
+				this.second = Arrays.copyOf(this.second, length);
+				this.energies = Arrays.copyOf(this.energies, length);
+			}
+
+			this.first[this.count] = pair.x;
+			this.second[this.count] = pair.y;
+			this.energies[this.count] = energy;
+			this.count++;
+
+			this.energy += energy;
+		}
+	}
+
+	/**
+	 * The distance between the alpha carbons of two amino acids.
+	 *
+	 * @param i The first amino acid.
+	 * @param j The second amino acid.
+	 */
+	private double distance(int i, int j) {
+		this.testing.getAtomPosition(this.testing.getPsi(i), this.position1);
+		this.testing.getAtomPosition(this.testing.getPsi(j), this.position2);
+
+		double dx = this.position1[0] - this.position2[0];
+		double dy = this.position1[1] - this.position2[1];
+		double dz = this.position1[2] - this.position2[2];
+
+		return Math.sqrt(dx*dx + dy*dy + dz*dz);
+	}
+}
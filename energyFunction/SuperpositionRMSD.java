@@ -0,0 +1,31 @@
+package energyFunction;
+
+import dataStructure.ChainTree;
+
+/**
+ * The root mean square deviation between the backbone atoms of a chain and a target 
+ * after optimal superposition. The moments needed are maintained in the nodes of the 
+ * chain tree, so the energy is computed in constant time after each rotation.
+ */
+public class SuperpositionRMSD implements EnergyFunction {
+	
+	private ChainTree testing, target;	// the chain trees to compute the energy
+	
+	/**
+	 * 
+	 * @param testing The chain tree to compute the energy of.
+	 * @param target The chain tree with the target positions of the atoms.
+	 */
+	public SuperpositionRMSD(ChainTree testing, ChainTree target) {
+		this.testing = testing;
+		this.target = target;
+		
+		this.testing.setSuperpositionTarget(this.target.getBackboneAtomPositions());
+	}
+
+	@Override
+	public double compute() {
+		return this.testing.getSuperpositionRMSD();
+	}
+
+}
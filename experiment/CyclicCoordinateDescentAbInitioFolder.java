@@ -2,11 +2,12 @@ package experiment;
 
 import java.awt.Color;
 import java.io.FileWriter;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
-import algorithm.CyclicCoordinateDescent;
+import algorithm.LoopCloser;
 import boundingVolume.Empty;
 
 import dataStructure.AdjustableChainTree;
@@ -68,26 +69,36 @@ public class CyclicCoordinateDescentAbInitioFolder {
 				cTreeLoop.backboneBonds[cTreeLoop.backboneBonds.length-1].boundingVolume = new Empty();
 				
 				// compute energy
-				EnergyFunction energyFunction = new LoopAtomDistance(cTreeLoop, start, end);
-				double minEnergy = Double.MAX_VALUE;
+				LoopAtomDistance energyFunction = new LoopAtomDistance(cTreeLoop, start, end);
 				
-				// init ccd
-				CyclicCoordinateDescent anglePredictor = new CyclicCoordinateDescent(cTreeLoop, cTreeLoop.getSubchain(cTreeLoop.length(), cTreeLoop.length()));
+				// the rotatable phi, psi bonds of the loop
+				List<Integer> loopBonds = new ArrayList<Integer>();
 				
-				// GUI
-				ChainTree guiLoop = null;
-
-				int i = 0;
+				for (int residue = start; residue <= end; residue++) {
+					if(rotateableBonds.contains(cTreeLoop.getPhi(residue))) {
+						if(!rotateableBonds.contains(cTreeLoop.getPsi(residue))) {
+							throw new IllegalArgumentException("Both phi and psi angles must be rotateable!");
+						}
+						
+						loopBonds.add(cTreeLoop.getPhi(residue));
+						loopBonds.add(cTreeLoop.getPsi(residue));
+					}
+				}
+				
+				// init ccd
+				BestLoop bestLoop = new BestLoop(pdb, start, end, energyFunction);
+				LoopCloser loopCloser = new LoopCloser(cTreeLoop, loopBonds);
+				loopCloser.setAcceptancePolicy(new LoopCloser.RamachandranAcceptance(ramachandranDistribution, false));
+				loopCloser.setConvergencePolicy(LoopCloser.targetRMSD(TARGET_RMSD));
+				loopCloser.setBudgetPolicy(LoopCloser.maxIterations(MAX_ITERATIONS_PER_CLOSE));
+				loopCloser.setClashTest(cTreeRemainder);
+				loopCloser.setSink(bestLoop);
 				
 				// close loop
-				while(minEnergy > TARGET_LOOP_RMSD) {
+				while(bestLoop.minEnergy > TARGET_LOOP_RMSD) {
 					// unfold
 					for (int residue = start; residue <= end; residue++) {
 						if(rotateableBonds.contains(cTreeLoop.getPhi(residue))) {
-							if(!rotateableBonds.contains(cTreeLoop.getPsi(residue))) {
-								throw new IllegalArgumentException("Both phi and psi angles must be rotateable!");
-							}
-							
 							Tuple2<Double,Double> angles = ramachandranDistribution.purposeAngle(cTreeLoop.getAminoAcidType(cTreeLoop.getAminoAcid(residue)));
 							
 							cTreeLoop.setRotationAngle(cTreeLoop.getPhi(residue), angles.x);
@@ -96,72 +107,13 @@ public class CyclicCoordinateDescentAbInitioFolder {
 					}
 					
 					// close the loop
-					for(int j = 0; j < MAX_ITERATIONS_PER_CLOSE; j++) {
-						for (int residue = start; residue <= end; residue++) {
-							// basic residue information
-							int bondPhi = cTreeLoop.getPhi(residue);
-							int bondPsi = cTreeLoop.getPsi(residue);
-							int aminoAcid = cTreeLoop.getAminoAcid(bondPhi);
-							
-							if(rotateableBonds.contains(bondPhi)) {
-								if(!rotateableBonds.contains(bondPsi)) {
-									throw new IllegalArgumentException("Both phi and psi angles must be rotateable!");
-								}
-
-								// get old phi, psi angles
-								List<Double> oldAngles = cTreeLoop.getDihedralAngles(aminoAcid, aminoAcid);
-								double oldPhi = oldAngles.get(0);
-								double oldPsi = oldAngles.get(1);
-							
-								// compute new phi, psi angle proposals
-								double deltaPhi = anglePredictor.getRotationAngle(bondPhi);
-								cTreeLoop.changeRotationAngle(bondPhi, deltaPhi);
-							
-								double deltaPsi = anglePredictor.getRotationAngle(bondPsi);
-								cTreeLoop.changeRotationAngle(bondPsi, deltaPsi);
-							
-								// get new phi, psi angles
-								List<Double> newAngles = cTreeLoop.getDihedralAngles(aminoAcid, aminoAcid);
-								double newPhi = newAngles.get(0);
-								double newPsi = newAngles.get(1);
-							
-								// compute the probability of the new conformation
-								double oldP = ramachandranDistribution.probability(cTreeLoop.getAminoAcidType(aminoAcid), oldPhi, oldPsi);
-								double newP = ramachandranDistribution.probability(cTreeLoop.getAminoAcidType(aminoAcid), newPhi, newPsi);
-								
-								// reject the new conformation?
-								if(Math.random() > newP / oldP) {
-									cTreeLoop.changeRotationAngle(bondPhi, -deltaPhi);
-									cTreeLoop.changeRotationAngle(bondPsi, -deltaPsi);
-								}
-							}
-						}
-						
-						
-						// have we reached our goal
-						if (anglePredictor.targetRMSDistance() < TARGET_RMSD) { 
-							
-							if (!cTreeLoop.isClashing() && !cTreeLoop.areClashing(cTreeRemainder)) {
-								double energy = energyFunction.compute();
-								
-								if(energy < minEnergy) {
-									if(guiLoop != null)
-										scene.remove(guiLoop);
-									
-									guiLoop = cTreeLoop.getSubchain(start-1, end+1);
-									scene.add(guiLoop);		
-									
-									minEnergy = energy;
-									System.out.println(pdb + " " +start+ "-" +end+ ": " + i + " " + minEnergy);
-								}
-							}
-							
-							break;
-						}
-					}
-					
-					i++;
+					loopCloser.close();
 				}
+				
+				System.out.println(pdb + " " +start+ "-" +end+ ": " + loopCloser.getStatistics());
+				
+				// the loop is done
+				cTreeLoop.detach(energyFunction);
 
 				previousSegment = segment;
 			}
@@ -169,4 +121,39 @@ public class CyclicCoordinateDescentAbInitioFolder {
 		
 		System.out.println("DONE!");
 	}
+	
+	/**
+	 * Keeps the closed loop with the lowest energy and shows it.
+	 */
+	private static class BestLoop implements LoopCloser.ClosureSink {
+		private String pdb;
+		private int start, end;							// the loop
+		private EnergyFunction energyFunction;			// the energy of the loop
+		
+		private double minEnergy = Double.MAX_VALUE;	// the lowest energy of a closed loop
+		private ChainTree guiLoop = null;				// the shown loop
+		
+		public BestLoop(String pdb, int start, int end, EnergyFunction energyFunction) {
+			this.pdb = pdb;
+			this.start = start;
+			this.end = end;
+			this.energyFunction = energyFunction;
+		}
+		
+		@Override
+		public void closed(ChainTree loop, int iterations) {
+			double energy = this.energyFunction.compute();
+			
+			if(energy < this.minEnergy) {
+				if(this.guiLoop != null)
+					scene.remove(this.guiLoop);
+				
+				this.guiLoop = loop.getSubchain(this.start-1, this.end+1);
+				scene.add(this.guiLoop);		
+				
+				this.minEnergy = energy;
+				System.out.println(this.pdb + " " +this.start+ "-" +this.end+ ": " + iterations + " " + this.minEnergy);
+			}
+		}
+	}
 }
@@ -12,6 +12,7 @@ import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -20,10 +21,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
 
 import boundingVolume.Empty;
 
-import algorithm.CyclicCoordinateDescent;
+import algorithm.LoopCloser;
+import algorithm.ParallelLoopCloser;
 
 import math.Tuple2;
 import math.Tuple3;
@@ -35,6 +38,7 @@ import tool.RamachandranDistribution;
 import dataStructure.AdjustableChainTree;
 import dataStructure.ChainTree;
 import energyFunction.EnergyFunction;
+import energyFunction.EnsembleEvaluator;
 import energyFunction.LoopAtomDistance;
 
 public class CyclicCoordinateDescentLoopClosure {
@@ -64,19 +68,22 @@ public class CyclicCoordinateDescentLoopClosure {
 	private static int MAX_ITERATIONS_PER_CLOSE = 5000;
 	private static int NUMBER_OF_TRIAL_LOOPS = 100;
 	
-	private static int MAX_THREADS = 2;
+	private static int MAX_THREADS = 2;											// the number of proteins closed at once
+	private static int WORKER_THREADS = Runtime.getRuntime().availableProcessors();	// the threads closing and evaluating the loops
+	private static ForkJoinPool workers;										// the worker threads shared by all loops
 	
 	
 		
 	public static void main(String[] args) throws Exception {
+		workers = new ForkJoinPool(WORKER_THREADS);
 				
 		/**
 		 * Thread for folding all loops in a single protein.
 		 */
-		final class LoopCloser implements Runnable {
+		final class AllLoopsCloser implements Runnable {
 			private String pdbId;
 			
-			public LoopCloser(String pdbId) {
+			public AllLoopsCloser(String pdbId) {
 				this.pdbId = pdbId;
 			}
 			
@@ -115,7 +122,7 @@ public class CyclicCoordinateDescentLoopClosure {
 		//Collections.shuffle(pdbIds);
 		
 		for(String pdbId : pdbIds) {			
-			Thread thread = new Thread(new LoopCloser(pdbId));
+			Thread thread = new Thread(new AllLoopsCloser(pdbId));
 			thread.start();
 			threads.add(thread);
 			
@@ -197,6 +204,8 @@ public class CyclicCoordinateDescentLoopClosure {
 		
 		System.out.println("Done with non sheet dominant proteins.");
 		
+		workers.shutdown();
+		
 		System.out.println("TOTALLY DONE!");
 	}
 	
@@ -259,13 +268,21 @@ public class CyclicCoordinateDescentLoopClosure {
 	}
 
 
-	private static void closeLoop(String pdbId, AdjustableChainTree cTree, int start, int end) {
+	private static void closeLoop(String pdbId, AdjustableChainTree cTree, final int start, final int end) {
 		// setup chain trees
 		AdjustableChainTree cTreeLoop = cTree.getSubchain(1, end+1);
 		AdjustableChainTree cTreeRemainder = cTree.getSubchain(end+2, cTree.length());
 		
-		// compute energy
-		EnergyFunction energyFunction = new LoopAtomDistance(cTreeLoop, start, end);
+		// compute energy of the closed loops in parallel on replicas of the native loop
+		EnsembleEvaluator evaluator = new EnsembleEvaluator(cTreeLoop, cTreeRemainder, new EnsembleEvaluator.EnergyFactory() {
+			@Override
+			public EnergyFunction create(ChainTree replica) {
+				replica.backboneBonds[replica.backboneBonds.length-1].boundingVolume = new Empty();
+				
+				return new LoopAtomDistance(replica, start, end);
+			}
+		}, workers, WORKER_THREADS);
+		
 		cTreeLoop.backboneBonds[cTreeLoop.backboneBonds.length-1].boundingVolume = new Empty();
 
 		// find rotateable bonds in the segment
@@ -279,6 +296,11 @@ public class CyclicCoordinateDescentLoopClosure {
 			}
 		}
 		
+		int[] loopBonds = new int[rotateableBonds.size()];
+		for (int i = 0; i < loopBonds.length; i++) {
+			loopBonds[i] = rotateableBonds.get(i);
+		}
+		
 		// phi, psi angles but not from loop and not in secondary structure
 		List<Tuple2<Double,Double>> phiPsiPairs = new ArrayList<Tuple2<Double,Double>>();
 		for (int aminoAcid = 2; aminoAcid < cTree.length()-1; aminoAcid++) {
@@ -289,11 +311,32 @@ public class CyclicCoordinateDescentLoopClosure {
 			}
 		}
 
-		// init CCD
-		CyclicCoordinateDescent anglePredictor = new CyclicCoordinateDescent(cTreeLoop, cTreeLoop.getSubchain(cTreeLoop.length(), cTreeLoop.length()));
-		
-		// GUI
-		ChainTree guiLoop = null;
+		// init parallel CCD loop closers for each folding restriction
+		Map<FoldingRestriction,ParallelLoopCloser> loopClosers = new EnumMap<FoldingRestriction,ParallelLoopCloser>(FoldingRestriction.class);
+		
+		for (final FoldingRestriction restriction : FoldingRestriction.values()) {
+			loopClosers.put(restriction, new ParallelLoopCloser(cTreeLoop, rotateableBonds, new ParallelLoopCloser.ReplicaFactory() {
+				@Override
+				public EnergyFunction configure(ChainTree replica, LoopCloser closer) {
+					switch(restriction) {
+						case NEIGHBOUR_INDEPENDENT:
+							closer.setAcceptancePolicy(new LoopCloser.RamachandranAcceptance(ramachandranDistribution, false));
+							break;
+						case NEIGHBOUR_DEPENDENT:
+							closer.setAcceptancePolicy(new LoopCloser.RamachandranAcceptance(ramachandranDistribution, true));
+							break;
+						default:
+							closer.setAcceptancePolicy(LoopCloser.ALWAYS);
+					}
+					
+					closer.setConvergencePolicy(LoopCloser.targetRMSD(TARGET_RMSD));
+					closer.setBudgetPolicy(new LoopCloser.AdaptiveBudget(MAX_ITERATIONS_PER_CLOSE));
+					
+					// the closed loops are evaluated afterwards
+					return null;
+				}
+			}, workers));
+		}
 
 		/*
 		 * Close loops.
@@ -304,114 +347,54 @@ public class CyclicCoordinateDescentLoopClosure {
 		
 		for(UnfoldingRestriction unfolding : new UnfoldingRestriction[] {UnfoldingRestriction.NONE, UnfoldingRestriction.FROM_PROTEIN, UnfoldingRestriction.NEIGHBOUR_INDEPENDENT, UnfoldingRestriction.NEIGHBOUR_DEPENDENT}) { 
 			Collection<List<Tuple2<Integer,Tuple2<Double,Double>>>> conformations = generateConformations(cTreeLoopCopy, cTreeRemainder, phiPsiPairs, start, end, unfolding);
+			List<double[]> starts = new ArrayList<double[]>();
+			
+			for(List<Tuple2<Integer,Tuple2<Double,Double>>> conformation : conformations) {
+				starts.add(toAngles(conformation));
+			}
 			
 			for(FoldingRestriction restriction : new FoldingRestriction[]{FoldingRestriction.NONE, FoldingRestriction.NEIGHBOUR_INDEPENDENT, FoldingRestriction.NEIGHBOUR_DEPENDENT}) {
-				int itterations = 0;
-				int unclosed = 0;
 				int clashes = 0;
 				Collection<Double> energies = new ArrayList<Double>();
 				double minEnergy = Double.MAX_VALUE;
 				
-				for(Collection<Tuple2<Integer,Tuple2<Double,Double>>> conformation : conformations) {
-					itterations = 0;
-					unforldIntoConformation(cTreeLoop, conformation);					
-					
-					while(true) {
-						for (int i = 0, j = rotateableBonds.size(); i < j; i += 2) { // loop over pairs of phi, psi bonds
-							// basic residue information
-							int bondPhi = rotateableBonds.get(i);
-							int bondPsi = rotateableBonds.get(i+1);
-							int aminoAcid = cTreeLoop.getAminoAcid(bondPhi);
-							
-							if(restriction == FoldingRestriction.NONE) {
-								// compute new phi, psi angle angles
-								double deltaPhi = anglePredictor.getRotationAngle(bondPhi);
-								cTreeLoop.changeRotationAngle(bondPhi, deltaPhi);
-							
-								double deltaPsi = anglePredictor.getRotationAngle(bondPsi);
-								cTreeLoop.changeRotationAngle(bondPsi, deltaPsi);
-								
-							} else {
-								// get old phi, psi angles
-								List<Double> oldAngles = cTreeLoop.getDihedralAngles(aminoAcid, aminoAcid);
-								double oldPhi = oldAngles.get(0);
-								double oldPsi = oldAngles.get(1);
-							
-								// compute new phi, psi angle proposals
-								double deltaPhi = anglePredictor.getRotationAngle(bondPhi);
-								cTreeLoop.changeRotationAngle(bondPhi, deltaPhi);
-							
-								double deltaPsi = anglePredictor.getRotationAngle(bondPsi);
-								cTreeLoop.changeRotationAngle(bondPsi, deltaPsi);
-							
-								// get new phi, psi angles
-								List<Double> newAngles = cTreeLoop.getDihedralAngles(aminoAcid, aminoAcid);
-								double newPhi = newAngles.get(0);
-								double newPsi = newAngles.get(1);
-							
-								// compute the probability of the new conformation
-								double oldP;
-								double newP;
-							
-								switch(restriction) {
-									case NEIGHBOUR_INDEPENDENT:
-										oldP = ramachandranDistribution.probability(cTreeLoop.getAminoAcidType(aminoAcid), oldPhi, oldPsi);
-										newP = ramachandranDistribution.probability(cTreeLoop.getAminoAcidType(aminoAcid), newPhi, newPsi);
-										break;
-									case NEIGHBOUR_DEPENDENT: 
-										oldP = ramachandranDistribution.probability(cTreeLoop.getAminoAcidType(aminoAcid), cTreeLoop.getAminoAcidType(aminoAcid-1), cTreeLoop.getAminoAcidType(aminoAcid+1), oldPhi, oldPsi);
-										newP = ramachandranDistribution.probability(cTreeLoop.getAminoAcidType(aminoAcid), cTreeLoop.getAminoAcidType(aminoAcid-1), cTreeLoop.getAminoAcidType(aminoAcid+1), newPhi, newPsi);
-										break;
-									default:
-										oldP = Double.NaN;
-										newP = Double.NaN;
-								}
-							
-								// reject the new conformation?
-								if(Math.random() > newP / oldP) {
-									cTreeLoop.changeRotationAngle(bondPhi, -deltaPhi);
-									cTreeLoop.changeRotationAngle(bondPsi, -deltaPsi);
-								}
-							}
-						}
-						
-						itterations++;
-						
-						// is loop closed?
-						if (anglePredictor.targetRMSDistance() < TARGET_RMSD) { 
-							
-							if (cTreeLoop.isClashing() || cTreeLoop.areClashing(cTreeRemainder)) {
-								clashes++;
-							} else {
-								double energy = energyFunction.compute();
-								energies.add(energy);
-								
-								if(energy < minEnergy) {
-									/*
-									if(guiLoop != null)
-										scene.remove(guiLoop);
-										guiLoop = cTreeLoop.getSubchain(start-1, end+1);
-										scene.add(guiLoop);						
-									*/
-									minEnergy = energy;
-								}
-							}
-							
-							break;
-						}
-						
-						// to many iterations?
-						if(itterations >= MAX_ITERATIONS_PER_CLOSE) {
-							unclosed++;
-							break;
-						}
+				// close the loop from all starts in parallel
+				ParallelLoopCloser loopCloser = loopClosers.get(restriction);
+				List<ParallelLoopCloser.Closure> closures = loopCloser.close(starts);
+				
+				int aborted = loopCloser.getAborted();
+				int unclosed = starts.size() - closures.size() - aborted;
+				
+				// evaluate the closed loops
+				double[][] closedAngles = new double[closures.size()][];
+				for (int i = 0; i < closedAngles.length; i++) {
+					closedAngles[i] = closures.get(i).angles;
+				}
+				
+				double[] closedEnergies = new double[closedAngles.length];
+				boolean[] closedClashes = new boolean[closedAngles.length];
+				
+				evaluator.evaluate(loopBonds, closedAngles, closedEnergies, closedClashes);
+				
+				for (int i = 0; i < closedAngles.length; i++) {
+					if (closedClashes[i]) {
+						clashes++;
+					} else {
+						energies.add(closedEnergies[i]);
+						minEnergy = Math.min(minEnergy, closedEnergies[i]);
 					}
 				}
 				
-				log(pdbId + "\t" + start + "\t" + end + "\t" + unfolding + "\t" + restriction + "\t" + clashes + "\t" +unclosed+"\t"+energies);				
-				System.out.println(pdbId + " " + start + "-" + end + " " + unfolding+ " " + restriction + ": " + clashes + " " +unclosed+" "+minEnergy);
+				log(pdbId + "\t" + start + "\t" + end + "\t" + unfolding + "\t" + restriction + "\t" + clashes + "\t" +unclosed+"\t"+aborted+"\t"+energies);				
+				System.out.println(pdbId + " " + start + "-" + end + " " + unfolding+ " " + restriction + ": " + clashes + " " +unclosed+" "+aborted+" "+minEnergy + " (" + loopCloser.getStatistics() + ")");
 			}
 		}
+		
+		evaluator.shutdown();
+		
+		for (ParallelLoopCloser loopCloser : loopClosers.values()) {
+			loopCloser.shutdown();
+		}
 	}
 	
 	
@@ -466,11 +449,19 @@ public class CyclicCoordinateDescentLoopClosure {
 		return conformations;
 	}
 	
-	private static void unforldIntoConformation(ChainTree cTree, Collection<Tuple2<Integer,Tuple2<Double,Double>>> conformation) {
+	/**
+	 * The dihedral angles of the phi, psi bonds of an unfolded conformation in the order of the bonds.
+	 */
+	private static double[] toAngles(List<Tuple2<Integer,Tuple2<Double,Double>>> conformation) {
+		double[] angles = new double[2 * conformation.size()];
+		
+		int i = 0;
 		for(Tuple2<Integer,Tuple2<Double,Double>> bondInfo : conformation) {
-			cTree.setRotationAngle(cTree.getPhi(bondInfo.x), bondInfo.y.x);
-			cTree.setRotationAngle(cTree.getPsi(bondInfo.x), bondInfo.y.y);
+			angles[i++] = bondInfo.y.x;
+			angles[i++] = bondInfo.y.y;
 		}
+		
+		return angles;
 	}
 	
 	private static synchronized void log(String str) {
@@ -0,0 +1,173 @@
+package experiment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import algorithm.CyclicCoordinateDescent;
+import algorithm.DampedLeastSquares;
+import algorithm.KinematicClosure;
+import algorithm.LoopClosureSolver;
+
+import math.Tuple2;
+import dataStructure.AdjustableChainTree;
+
+/**
+ * Compares the closure rate and the time per closure of CCD, damped least squares, CCD
+ * finished by damped least squares and kinematic closure on the loops of some proteins.
+ * Every solver closes each loop from the same random starts. Kinematic closure solves
+ * the first, last and a random middle amino acid of the start and samples the other
+ * angles anew on each further attempt; its iterations are these attempts.
+ */
+public class LoopClosureBenchmark {
+
+	private static enum Solver {CCD, DAMPED_LEAST_SQUARES, CCD_FINISHED_BY_DAMPED_LEAST_SQUARES, KINEMATIC_CLOSURE};
+
+	/*
+	 * Configuration.
+	 */
+	private static String[] pdbIds = {"1PUX","1E2B","2YS4","1QDD","1T0G","2J3L","1M4J","1K7C"};
+
+	private static double TARGET_RMSD = 0.08;
+	private static double FINISH_RMSD = 1.0;			// the RMSD below which CCD hands over to damped least squares
+	private static int MAX_ITERATIONS_PER_CLOSE = 5000;
+	private static int MAX_ATTEMPTS_PER_CLOSE = 200;	// the attempts of kinematic closure
+	private static int NUMBER_OF_TRIAL_LOOPS = 100;
+
+
+
+	public static void main(String[] args) {
+		if (args.length > 0) {
+			pdbIds = args;
+		}
+
+		int[] closures = new int[Solver.values().length];
+		int[] trials = new int[Solver.values().length];
+		long[] iterations = new long[Solver.values().length];
+		long[] time = new long[Solver.values().length];
+
+		for (String pdbId : pdbIds) {
+			AdjustableChainTree cTree = new AdjustableChainTree(pdbId);
+			List<Tuple2<Integer, Integer>> segments = cTree.getIntermediateSegments();
+
+			for (int i = 1; i < segments.size()-1; i++) {
+				Tuple2<Integer, Integer> segment = segments.get(i);
+				int length = segment.y - segment.x + 1;
+
+				if (length < 4 || length > 14)
+					continue;
+
+				AdjustableChainTree cTreeLoop = cTree.getSubchain(1, segment.y+1);
+				AdjustableChainTree target = cTreeLoop.getSubchain(cTreeLoop.length(), cTreeLoop.length());
+
+				// find rotateable bonds in the segment
+				List<Integer> rotateableBonds = new ArrayList<Integer>();
+
+				for (int bond : cTreeLoop.rotatableBonds()) {
+					int aminoAcid = cTreeLoop.getAminoAcid(bond);
+
+					if (segment.x <= aminoAcid && aminoAcid <= segment.y) {
+						rotateableBonds.add(bond);
+					}
+				}
+
+				int[] bonds = new int[rotateableBonds.size()];
+				for (int k = 0; k < bonds.length; k++) {
+					bonds[k] = rotateableBonds.get(k);
+				}
+
+				// the random starts
+				double[][] starts = new double[NUMBER_OF_TRIAL_LOOPS][bonds.length];
+				for (double[] start : starts) {
+					for (int k = 0; k < start.length; k++) {
+						start[k] = (Math.random() - 0.5) * Math.PI * 2;
+					}
+				}
+
+				for (Solver solver : Solver.values()) {
+					int s = solver.ordinal();
+					int loopClosures = 0;
+					long loopTime = 0;
+
+					for (double[] start : starts) {
+						for (int k = 0; k < bonds.length; k++) {
+							cTreeLoop.setRotationAngle(bonds[k], start[k]);
+						}
+
+						long begin = System.nanoTime();
+						int count = close(cTreeLoop, target, bonds, segment, solver);
+
+						loopTime += System.nanoTime() - begin;
+						trials[s]++;
+
+						if (count >= 0) {
+							loopClosures++;
+							iterations[s] += count;
+						}
+					}
+
+					closures[s] += loopClosures;
+					time[s] += loopTime;
+
+					System.out.println(pdbId + " " + segment.x + "-" + segment.y + " " + solver + ": " + loopClosures + "/" + starts.length + " closed, " +
+									   String.format("%.2f", loopTime / 1000000.0 / Math.max(1, loopClosures)) + " ms/closure");
+				}
+			}
+		}
+
+		for (Solver solver : Solver.values()) {
+			int s = solver.ordinal();
+
+			System.out.println(solver + ": " + String.format("%.3f", (double) closures[s] / Math.max(1, trials[s])) + " closure rate, " +
+							   String.format("%.2f", time[s] / 1000000.0 / Math.max(1, closures[s])) + " ms/closure, " +
+							   String.format("%.1f", (double) iterations[s] / Math.max(1, closures[s])) + " iterations/closure");
+		}
+	}
+
+	/**
+	 * Closes the loop from its current conformation.
+	 *
+	 * @return The number of iterations of the closure or -1 if the loop was not closed.
+	 */
+	private static int close(AdjustableChainTree cTreeLoop, AdjustableChainTree target, int[] bonds, Tuple2<Integer, Integer> segment, Solver solver) {
+		if (solver == Solver.KINEMATIC_CLOSURE) {
+			KinematicClosure kic = new KinematicClosure(cTreeLoop, target, segment.x, segment.y);
+			int middle = segment.x + 1 + (int) (Math.random() * (segment.y - segment.x - 1));
+
+			for (int attempt = 1; attempt <= MAX_ATTEMPTS_PER_CLOSE; attempt++) {
+				List<double[]> solutions = (attempt == 1) ? kic.solve(segment.x, middle, segment.y) : kic.sample();
+
+				if (!solutions.isEmpty()) {
+					kic.apply(solutions.get(0));
+					return attempt;
+				}
+			}
+
+			return -1;
+		}
+
+		LoopClosureSolver ccd = new CyclicCoordinateDescent(cTreeLoop, target);
+		LoopClosureSolver dls = new DampedLeastSquares(cTreeLoop, target);
+
+		for (int iteration = 1; iteration <= MAX_ITERATIONS_PER_CLOSE; iteration++) {
+			switch (solver) {
+				case CCD:
+					ccd.iterate(bonds);
+					break;
+				case DAMPED_LEAST_SQUARES:
+					dls.iterate(bonds);
+					break;
+				default:
+					if (ccd.targetRMSDistance() > FINISH_RMSD) {
+						ccd.iterate(bonds);
+					} else {
+						dls.iterate(bonds);
+					}
+			}
+
+			if (ccd.targetRMSDistance() < TARGET_RMSD)
+				return iteration;
+		}
+
+		return -1;
+	}
+}
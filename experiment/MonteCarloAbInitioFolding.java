@@ -10,6 +10,8 @@ import tool.ChainTreeScene;
 import dataStructure.AdjustableChainTree;
 import dataStructure.ChainTree;
 import energyFunction.AtomDistance;	
+import energyFunction.Compactness;
+import energyFunction.CompositeEnergy;
 import energyFunction.DihedralAngles;
 import energyFunction.EnergyFunction;
 
@@ -20,6 +22,7 @@ public class MonteCarloAbInitioFolding {
 		 */
 		String pdbId = "1SIS"; // 1PUX, 1RKI, 1T0G, 1F3U, 1XJH, 1JN1, 1SIS (small)
 		double errorTolerance = 0.01;
+		double compactnessWeight = 0.0; // weight of the radius of gyration relative to the atom distance
 		
 
 		
@@ -29,7 +32,14 @@ public class MonteCarloAbInitioFolding {
 		ChainTree cTree = new AdjustableChainTree(pdbId);
 		ChainTree target = new ChainTree(pdbId);
 		
-		EnergyFunction energyFunction = new AtomDistance(cTree, target);
+		// the cheap terms are computed first so expensive terms are skipped for rejected moves
+		CompositeEnergy energyFunction = new CompositeEnergy();
+		energyFunction.add(new AtomDistance(cTree, target), 1, cTree.length(), 0);
+		
+		if (compactnessWeight > 0) {
+			energyFunction.add(new Compactness(cTree), compactnessWeight, 1, 0);
+		}
+		
 		List<Integer> rotateableBonds = cTree.rotatableBonds();
 		
 		errorTolerance++; // simpler computation
@@ -52,24 +62,26 @@ public class MonteCarloAbInitioFolding {
 			int i = rotateableBonds.get((int) (Math.random() * rotateableBonds.size()));
 			double angle = (Math.random()-0.5)*15*(Math.PI/180);
 			
+			cTree.propose();
 			cTree.changeRotationAngle(i, angle);
 			scene.repaint();
 			Thread.sleep(50);
 			
 			if(cTree.isClashing()) {
 				// undo move if tree is clashing
-				cTree.changeRotationAngle(i, -angle);
+				cTree.reject();
 				
 			} else {
-				// if not clashing then test for energy efficiency
-				double tmpEnergy = energyFunction.compute();
+				// if not clashing then test for energy efficiency (only the moved atoms are recomputed)
+				double tmpEnergy = energyFunction.compute(energyUpperBound);
 				
 				if (tmpEnergy >= energyUpperBound) {
 					// if energy is higher than the upper bound then discard it
-					cTree.changeRotationAngle(i, -angle);	
+					cTree.reject();	
 				
 				} else {
 					// try the new conformation
+					cTree.accept();
 					energy = tmpEnergy;
 					
 					if (tmpEnergy * errorTolerance < energyUpperBound) {
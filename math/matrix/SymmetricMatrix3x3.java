@@ -0,0 +1,103 @@
+package math.matrix;
+
+import java.util.Arrays;
+
+/**
+ * A symmetric 3x3 matrix with a closed form solution for its eigenvalues.
+ */
+public class SymmetricMatrix3x3 {
+	public double a11, a12, a13, a22, a23, a33; // the entries of the upper triangle of the matrix
+
+	/**
+	 * Create the matrix from the entries of its upper triangle.
+	 *
+	 * @param a11
+	 * @param a12
+	 * @param a13
+	 * @param a22
+	 * @param a23
+	 * @param a33
+	 */
+	public SymmetricMatrix3x3(double a11, double a12, double a13, double a22, double a23, double a33) {
+		this.a11 = a11; this.a12 = a12; this.a13 = a13;
+		this.a22 = a22; this.a23 = a23;
+		this.a33 = a33;
+	}
+
+	/**
+	 * Create the matrix MtM of a general 3x3 matrix M.
+	 *
+	 * @param m The entries of M in row major order.
+	 * @return The symmetric matrix MtM.
+	 */
+	public static SymmetricMatrix3x3 transposeTimes(double[] m) {
+		return new SymmetricMatrix3x3(m[0]*m[0] + m[3]*m[3] + m[6]*m[6], 
+									  m[0]*m[1] + m[3]*m[4] + m[6]*m[7], 
+									  m[0]*m[2] + m[3]*m[5] + m[6]*m[8],
+									  m[1]*m[1] + m[4]*m[4] + m[7]*m[7], 
+									  m[1]*m[2] + m[4]*m[5] + m[7]*m[8],
+									  m[2]*m[2] + m[5]*m[5] + m[8]*m[8]);
+	}
+
+	/**
+	 * The trace of the matrix.
+	 *
+	 * @return The sum of the diagonal entries.
+	 */
+	public double trace() {
+		return this.a11 + this.a22 + this.a33;
+	}
+
+	/**
+	 * Computes the eigenvalues of the matrix by the trigonometric solution of the
+	 * characteristic polynomial.
+	 * http://en.wikipedia.org/wiki/Eigenvalue_algorithm#3.C3.973_matrices
+	 *
+	 * @return The eigenvalues in decreasing order.
+	 */
+	public double[] eigenvalues() {
+		double p1 = this.a12*this.a12 + this.a13*this.a13 + this.a23*this.a23;
+
+		// the matrix is diagonal
+		if (p1 == 0) {
+			double[] eigenvalues = { this.a11, this.a22, this.a33 };
+			Arrays.sort(eigenvalues);
+
+			return new double[] { eigenvalues[2], eigenvalues[1], eigenvalues[0] };
+		}
+
+		double q = this.trace() / 3;
+		double p2 = (this.a11-q)*(this.a11-q) + (this.a22-q)*(this.a22-q) + (this.a33-q)*(this.a33-q) + 2*p1;
+		double p = Math.sqrt(p2 / 6);
+
+		// B = (A - qI) / p
+		double b11 = (this.a11-q) / p, b12 = this.a12 / p, b13 = this.a13 / p;
+		double b22 = (this.a22-q) / p, b23 = this.a23 / p;
+		double b33 = (this.a33-q) / p;
+
+		double r = (b11*(b22*b33 - b23*b23) - b12*(b12*b33 - b23*b13) + b13*(b12*b23 - b22*b13)) / 2;
+
+		// in exact arithmetic -1 <= r <= 1
+		double phi;
+		if (r <= -1) {
+			phi = Math.PI / 3;
+		} else if (r >= 1) {
+			phi = 0;
+		} else {
+			phi = Math.acos(r) / 3;
+		}
+
+		double eigenvalue1 = q + 2 * p * Math.cos(phi);
+		double eigenvalue3 = q + 2 * p * Math.cos(phi + (2*Math.PI/3));
+		double eigenvalue2 = 3 * q - eigenvalue1 - eigenvalue3;
+
+		return new double[] { eigenvalue1, eigenvalue2, eigenvalue3 };
+	}
+
+	@Override
+	public String toString() {
+		return "[" + this.a11 + ", " + this.a12 + ", " + this.a13 + "]\n" +
+			   "[" + this.a12 + ", " + this.a22 + ", " + this.a23 + "]\n" +
+			   "[" + this.a13 + ", " + this.a23 + ", " + this.a33 + "]";
+	}
+}
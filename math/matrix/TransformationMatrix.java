@@ -237,6 +237,18 @@ public class TransformationMatrix {
 		return new Point3D(this.a14, this.a24, this.a34);
 	}
 	
+	/**
+	 * Returns the inverse transformation. As the matrix is a rigid transformation the
+	 * inverse is given by the transposed rotation and the back rotated translation.
+	 * 
+	 * @return The inverse of this transformation.
+	 */
+	public TransformationMatrix getInverse() {
+		return new TransformationMatrix(a11, a21, a31, -(a11*a14 + a21*a24 + a31*a34),
+										a12, a22, a32, -(a12*a14 + a22*a24 + a32*a34),
+										a13, a23, a33, -(a13*a14 + a23*a24 + a33*a34));
+	}
+	
 	@Override
 	public String toString() {
 		return String.format("[%s, %s, %s, %s]\n[%s, %s, %s, %s]\n[%s, %s, %s, %s]", 
@@ -0,0 +1,90 @@
+package test;
+
+import java.util.List;
+
+import chemestry.AminoAcid;
+import tool.PairPotentialTable;
+import dataStructure.ChainTree;
+import energyFunction.PairPotential;
+
+/**
+ * Checks that the pair potential survives a rejected move while it has no interacting
+ * pairs and afterwards finds the pairs of the folded chain.
+ */
+public class PairPotentialTest {
+
+	private static int BINS = 6;				// the cutoff in angstrom with bins of one angstrom
+
+	public static void main(String[] args) {
+		int pairs = check(new ChainTree("1PUX"));
+
+		System.out.println("The folded chain has " + pairs + " interacting pairs.");
+	}
+
+	/**
+	 * Stretches the chain, rejects a move from the empty potential and folds the chain
+	 * back into its original conformation.
+	 *
+	 * @param cTree The chain to test.
+	 * @return The number of interacting pairs of the folded chain.
+	 */
+	public static int check(ChainTree cTree) {
+		List<Integer> bonds = cTree.rotatableBonds();
+		double[] angles = new double[bonds.size()];
+
+		for (int k = 0; k < angles.length; k++) {
+			angles[k] = cTree.getDihedralAngle(bonds.get(k));
+		}
+
+		// every interacting pair contributes one
+		PairPotentialTable table = new PairPotentialTable(BINS, 1.0);
+
+		for (AminoAcid.Type type1 : AminoAcid.Type.values()) {
+			for (AminoAcid.Type type2 : AminoAcid.Type.values()) {
+				for (int bin = 0; bin < BINS; bin++) {
+					table.set(type1, type2, bin, 1);
+				}
+			}
+		}
+
+		// stretch the chain so no amino acids interact
+		for (int bond : bonds) {
+			cTree.setRotationAngle(bond, Math.PI);
+		}
+
+		PairPotential energyFunction = new PairPotential(cTree, table);
+
+		if (energyFunction.getPairCount() != 0) {
+			throw new RuntimeException("The stretched chain has interacting pairs!");
+		}
+
+		// reject a move from the empty potential
+		cTree.propose();
+		cTree.changeRotationAngle(bonds.get(bonds.size() / 2), 0.1);
+		energyFunction.compute();
+		cTree.reject();
+
+		// fold the chain back
+		for (int k = 0; k < angles.length; k++) {
+			cTree.setRotationAngle(bonds.get(k), angles[k]);
+		}
+
+		int expected = 0;
+
+		for (int i = 1; i <= cTree.length(); i++) {
+			for (int j = i + PairPotential.DEFAULT_MIN_SEPARATION; j <= cTree.length(); j++) {
+				if (cTree.getAtomPosition(cTree.getPsi(i)).distance(cTree.getAtomPosition(cTree.getPsi(j))) < BINS) {
+					expected++;
+				}
+			}
+		}
+
+		if (energyFunction.getPairCount() != expected || Math.abs(energyFunction.compute() - expected) > 1e-9) {
+			throw new RuntimeException("The pair potential has " + energyFunction.getPairCount() + " pairs instead of " + expected + "!");
+		}
+
+		cTree.detach(energyFunction);
+
+		return expected;
+	}
+}
@@ -0,0 +1,139 @@
+package test;
+
+import java.util.List;
+import java.util.Random;
+
+import math.Point3D;
+import dataStructure.ChainTree;
+import energyFunction.SuperpositionRMSD;
+
+/**
+ * Checks the superposition RMSD maintained by the moments in the chain tree against a
+ * direct quaternion superposition (Horn) of the atom positions after random moves.
+ * Both lose precision to cancellation as the coordinates grow, so the difference is
+ * measured relative to the RMSD.
+ */
+public class SuperpositionRMSDTest {
+
+	private static double TOLERANCE = 1e-9;		// the largest relative difference
+	private static int MOVES = 500;
+
+	public static void main(String[] args) {
+		ChainTree cTree = new ChainTree("1PUX");
+		ChainTree target = new ChainTree("1PUX");
+
+		double error = maxError(cTree, target, MOVES, new Random(1));
+
+		System.out.println("Largest relative difference to the quaternion superposition: " + error);
+
+		if (error > TOLERANCE) {
+			throw new RuntimeException("The superposition RMSD differs from the quaternion superposition!");
+		}
+	}
+
+	/**
+	 * Rotates random bonds of a tree and compares the superposition RMSD of the tree to the
+	 * quaternion superposition after each move.
+	 *
+	 * @param cTree The tree to move.
+	 * @param target The tree to superpose on.
+	 * @param moves The number of moves.
+	 * @param random The source of the moves.
+	 * @return The largest difference between the two RMSDs relative to the quaternion RMSD.
+	 */
+	public static double maxError(ChainTree cTree, ChainTree target, int moves, Random random) {
+		SuperpositionRMSD energyFunction = new SuperpositionRMSD(cTree, target);
+		List<Integer> bonds = cTree.rotatableBonds();
+		List<Point3D> targetPositions = target.getBackboneAtomPositions();
+
+		double error = 0;
+
+		for (int i = 0; i < moves; i++) {
+			cTree.changeRotationAngle(bonds.get(random.nextInt(bonds.size())), random.nextDouble() - 0.5);
+
+			double expected = quaternionRMSD(cTree.getBackboneAtomPositions(), targetPositions);
+
+			error = Math.max(error, Math.abs(expected - energyFunction.compute()) / expected);
+		}
+
+		return error;
+	}
+
+	/**
+	 * Computes the superposition RMSD from the largest eigenvalue of Horn's quaternion
+	 * matrix, found by Jacobi rotations.
+	 */
+	private static double quaternionRMSD(List<Point3D> positions, List<Point3D> targets) {
+		int n = positions.size();
+		double[] c = new double[3], d = new double[3];
+
+		for (int i = 0; i < n; i++) {
+			Point3D x = positions.get(i), y = targets.get(i);
+
+			c[0] += x.x; c[1] += x.y; c[2] += x.z;
+			d[0] += y.x; d[1] += y.y; d[2] += y.z;
+		}
+
+		for (int k = 0; k < 3; k++) {
+			c[k] /= n;
+			d[k] /= n;
+		}
+
+		// the cross-covariance and the sum of squared lengths of the centred positions
+		double[][] s = new double[3][3];
+		double g = 0;
+
+		for (int i = 0; i < n; i++) {
+			Point3D p = positions.get(i), q = targets.get(i);
+			double[] x = {p.x - c[0], p.y - c[1], p.z - c[2]};
+			double[] y = {q.x - d[0], q.y - d[1], q.z - d[2]};
+
+			for (int a = 0; a < 3; a++) {
+				g += x[a]*x[a] + y[a]*y[a];
+
+				for (int b = 0; b < 3; b++) {
+					s[a][b] += x[a]*y[b];
+				}
+			}
+		}
+
+		double[][] m = {
+			{s[0][0]+s[1][1]+s[2][2], s[1][2]-s[2][1], s[2][0]-s[0][2], s[0][1]-s[1][0]},
+			{s[1][2]-s[2][1], s[0][0]-s[1][1]-s[2][2], s[0][1]+s[1][0], s[2][0]+s[0][2]},
+			{s[2][0]-s[0][2], s[0][1]+s[1][0], -s[0][0]+s[1][1]-s[2][2], s[1][2]+s[2][1]},
+			{s[0][1]-s[1][0], s[2][0]+s[0][2], s[1][2]+s[2][1], -s[0][0]-s[1][1]+s[2][2]}
+		};
+
+		// diagonalize by Jacobi rotations
+		for (int sweep = 0; sweep < 100; sweep++) {
+			for (int p = 0; p < 4; p++) {
+				for (int q = p+1; q < 4; q++) {
+					if (m[p][q] == 0)
+						continue;
+
+					double theta = (m[q][q] - m[p][p]) / (2 * m[p][q]);
+					double t = (theta == 0) ? 1 : Math.signum(theta) / (Math.abs(theta) + Math.sqrt(theta*theta + 1));
+					double cos = 1 / Math.sqrt(t*t + 1), sin = t * cos;
+
+					for (int k = 0; k < 4; k++) {
+						double a = m[k][p], b = m[k][q];
+
+						m[k][p] = cos*a - sin*b;
+						m[k][q] = sin*a + cos*b;
+					}
+
+					for (int k = 0; k < 4; k++) {
+						double a = m[p][k], b = m[q][k];
+
+						m[p][k] = cos*a - sin*b;
+						m[q][k] = sin*a + cos*b;
+					}
+				}
+			}
+		}
+
+		double largest = Math.max(Math.max(m[0][0], m[1][1]), Math.max(m[2][2], m[3][3]));
+
+		return Math.sqrt(Math.max(0, g - 2*largest) / n);
+	}
+}
@@ -99,9 +99,7 @@ public class VisualCCDLoopCloser {
 	
 		while (true) {
 			for (int bond : rotateableBonds) {
-				double angle = anglePredictor.getRotationAngle(bond);
-	
-				t1.changeRotationAngle(bond, angle);
+				anglePredictor.step(bond);
 	
 				scene.repaint(t1);
 	
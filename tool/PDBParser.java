@@ -4,8 +4,10 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
 import java.util.StringTokenizer;
@@ -23,6 +25,7 @@ public class PDBParser {
 	
 	public List<Tuple2<Type,SecondaryStructure>> proteinInformation = new ArrayList<Tuple2<Type,SecondaryStructure>>();
 	public List<Point3D> backboneAtomPositions = new ArrayList<Point3D>();
+	public List<Map<String,Point3D>> sideChainAtomPositions = new ArrayList<Map<String,Point3D>>(); // the heavy side chain atoms of each amino acid by name
 		
 	// small state variables
 	private List<Tuple2<Integer, Integer>> helixes = new LinkedList<Tuple2<Integer, Integer>>();
@@ -100,6 +103,19 @@ public class PDBParser {
 
 			this.backboneAtomPositions.add(new Point3D(x, y, z));
 			this.atomCount++;
+			
+		// is side chain (skipping the carbonyl oxygen and hydrogens)
+		} else if(!this.endOfBackbone && !this.sideChainAtomPositions.isEmpty() && !name.equals("O") && !name.equals("OXT") && !isHydrogen(name)) {
+			Map<String,Point3D> sideChain = this.sideChainAtomPositions.get(this.sideChainAtomPositions.size()-1);
+			
+			// only keep the first alternate location
+			if(!sideChain.containsKey(name)) {
+				double x = Double.parseDouble(columns(record, 31, 38));
+				double y = Double.parseDouble(columns(record, 39, 46));
+				double z = Double.parseDouble(columns(record, 47, 54));
+				
+				sideChain.put(name, new Point3D(x, y, z));
+			}
 		}
 	}
 	
@@ -108,6 +124,7 @@ public class PDBParser {
 		
 		if(!this.endOfBackbone && name.equals("N")) {
 			this.proteinInformation.add(new Tuple2<Type,SecondaryStructure>(Type.valueOf(columns(record, 17, 20)),SecondaryStructure.NONE));
+			this.sideChainAtomPositions.add(new LinkedHashMap<String,Point3D>());
 		}
 	}
 
@@ -144,6 +161,18 @@ public class PDBParser {
 		this.endOfBackbone = true;
 	}
 	
+	/**
+	 * Is the atom a hydrogen (or deuterium) atom, eg. HB2 or 1HD1.
+	 * 
+	 * @param name The name of the atom.
+	 */
+	private static boolean isHydrogen(String name) {
+		int i = 0;
+		while(i < name.length() && Character.isDigit(name.charAt(i))) i++;
+		
+		return i < name.length() && (name.charAt(i) == 'H' || name.charAt(i) == 'D');
+	}
+	
 	/**
 	 * Returns the record type of the PDB record.
 	 * 
@@ -0,0 +1,182 @@
+package tool;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import chemestry.AminoAcid;
+import chemestry.AminoAcid.Type;
+
+/**
+ * A knowledge-based pairwise potential between amino acids (eg. a Miyazawa-Jernigan
+ * style contact table) as a function of the amino acid types and the distance between
+ * their alpha carbons, discretized into bins of equal width. Pairs further apart than
+ * the last bin do not interact.
+ *
+ * The values are stored in a single flat array indexed by
+ * (type1 * AminoAcid.count + type2) * bins + bin, so a lookup is a multiplication and
+ * an array access.
+ *
+ * The binary format is a magic number, the number of amino acid types, the number of
+ * bins and the bin width followed by the values in the order of the array, all written
+ * by a DataOutputStream (big endian).
+ */
+public class PairPotentialTable {
+
+	private static int MAGIC = 0x50505431;	// "PPT1"
+
+	private int bins;						// the number of distance bins
+	private double binWidth;				// the width of a distance bin
+	private float[] values;					// the potential of each pair of types and bin
+
+
+
+	/**
+	 * Creates a table with all values zero.
+	 *
+	 * @param bins The number of distance bins.
+	 * @param binWidth The width of a distance bin.
+	 */
+	public PairPotentialTable(int bins, double binWidth) {
+		if (bins < 1 || binWidth <= 0) {
+			throw new IllegalArgumentException("The table must have at least one bin of positive width!");
+		}
+
+		this.bins = bins;
+		this.binWidth = binWidth;
+		this.values = new float[AminoAcid.count * AminoAcid.count * bins];
+	}
+
+	/**
+	 * Reads a table in the binary format.
+	 *
+	 * @param dataFile The file to read the table from.
+	 */
+	public PairPotentialTable(String dataFile) {
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(dataFile)));
+
+			try {
+				if (in.readInt() != MAGIC || in.readInt() != AminoAcid.count) {
+					throw new IllegalArgumentException("Not a pair potential table: " + dataFile + "!");
+				}
+
+				this.bins = in.readInt();
+				this.binWidth = in.readDouble();
+				this.values = new float[AminoAcid.count * AminoAcid.count * this.bins];
+
+				for (int i = 0; i < this.values.length; i++) {
+					this.values[i] = in.readFloat();
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Could not read the pair potential table: " + dataFile + "!", e);
+		}
+	}
+
+
+
+	/**
+	 * Writes the table in the binary format.
+	 *
+	 * @param dataFile The file to write the table to.
+	 */
+	public void save(String dataFile) {
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dataFile)));
+
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(AminoAcid.count);
+				out.writeInt(this.bins);
+				out.writeDouble(this.binWidth);
+
+				for (float value : this.values) {
+					out.writeFloat(value);
+				}
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Could not write the pair potential table: " + dataFile + "!", e);
+		}
+	}
+
+	/**
+	 * Sets the potential of a pair of types in a bin (for both orders of the types).
+	 *
+	 * @param type1 The type of the first amino acid.
+	 * @param type2 The type of the second amino acid.
+	 * @param bin The distance bin.
+	 * @param value The potential.
+	 */
+	public void set(Type type1, Type type2, int bin, double value) {
+		int t1 = AminoAcid.typeToInt(type1);
+		int t2 = AminoAcid.typeToInt(type2);
+
+		this.values[(t1 * AminoAcid.count + t2) * this.bins + bin] = (float) value;
+		this.values[(t2 * AminoAcid.count + t1) * this.bins + bin] = (float) value;
+	}
+
+	/**
+	 * The potential of a pair of types at a distance.
+	 *
+	 * @param type1 The type of the first amino acid.
+	 * @param type2 The type of the second amino acid.
+	 * @param distance The distance between the alpha carbons.
+	 * @return The potential (0 beyond the cutoff).
+	 */
+	public double get(Type type1, Type type2, double distance) {
+		return this.get(AminoAcid.typeToInt(type1), AminoAcid.typeToInt(type2), distance);
+	}
+
+	/**
+	 * The potential of a pair of types at a distance.
+	 *
+	 * @param t1 The index of the type of the first amino acid (see AminoAcid.typeToInt).
+	 * @param t2 The index of the type of the second amino acid.
+	 * @param distance The distance between the alpha carbons.
+	 * @return The potential (0 beyond the cutoff).
+	 */
+	public double get(int t1, int t2, double distance) {
+		int bin = (int) (distance / this.binWidth);
+
+		if (bin >= this.bins)
+			return 0;
+
+		return this.values[(t1 * AminoAcid.count + t2) * this.bins + bin];
+	}
+
+	/**
+	 * The distance beyond which amino acids do not interact.
+	 *
+	 * @return The upper end of the last bin.
+	 */
+	public double getCutoff() {
+		return this.bins * this.binWidth;
+	}
+
+	/**
+	 * The number of distance bins.
+	 *
+	 * @return The number of bins.
+	 */
+	public int getBins() {
+		return this.bins;
+	}
+
+	/**
+	 * The width of a distance bin.
+	 *
+	 * @return The bin width.
+	 */
+	public double getBinWidth() {
+		return this.binWidth;
+	}
+}
@@ -6,8 +6,11 @@ import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 import math.Tuple2;
 
@@ -17,17 +20,30 @@ import chemestry.AminoAcid.Type;
 public class RamachandranDistribution {
 	
 	private static double RADIAN_TO_DEGREE_FACTOR = 180 / Math.PI;
+	private static int BINS = 360/5;								// the number of bins of an angle
+	private static int TABLE = BINS*BINS;							// the number of bins of a pair of phi, psi angles
 	
-	private Double[][][][] rightNeightbour = new Double[AminoAcid.count][AminoAcid.count][360/5][360/5];
-	private Double[][][][] leftNeightbour = new Double[AminoAcid.count][AminoAcid.count][360/5][360/5];
+	// the probability of each bin given a neighbour at (aminoAcid*count + neighbour)*TABLE + bin (0 if there is no data)
+	private float[] rightNeightbour = new float[AminoAcid.count*AminoAcid.count*TABLE];
+	private float[] leftNeightbour = new float[AminoAcid.count*AminoAcid.count*TABLE];
+	private float[] logRightNeightbour;								// the logarithms (-infinity if there is no data)
+	private float[] logLeftNeightbour;
 	
-	private Double[][][] singleProbabilities = new Double[AminoAcid.count][360/5][360/5];
+	// the probability of each bin at aminoAcid*TABLE + bin (0 if there is no data)
+	private double[] singleProbabilities = new double[AminoAcid.count*TABLE];
+	private double[] logSingleProbabilities;						// the logarithms (-infinity if there is no data)
+	
+	// the alias tables of the bins of each type and of each combination of types (created when first sampled)
+	private AliasTable[] aliasTables = new AliasTable[AminoAcid.count];
+	private AliasTable[] neighbourAliasTables = new AliasTable[AminoAcid.count*AminoAcid.count*AminoAcid.count];
 		
 	public RamachandranDistribution() {
 		this("/home/hkb/data/bachelor/Neighbor-dependent Ramachandran Distributions/NDRD_TCB.txt");
 	}
 	
 	public RamachandranDistribution(String dataFile) {
+		boolean[] isSingleKnown = new boolean[this.singleProbabilities.length];
+		
 		try{
 			BufferedReader data = new BufferedReader(new FileReader(dataFile));
 			
@@ -46,76 +62,273 @@ public class RamachandranDistribution {
 					double probability = Double.valueOf(tokens[5]);
 					
 					if (tokens[2].equals("ALL")) {
-						if(this.singleProbabilities[AminoAcid.typeToInt(aminoAcid)][toBin(phi)][toBin(psi)] == null) {
-							this.singleProbabilities[AminoAcid.typeToInt(aminoAcid)][toBin(phi)][toBin(psi)] = probability;
+						int i = index(aminoAcid, toBin(phi), toBin(psi));
+						
+						if(!isSingleKnown[i]) {
+							this.singleProbabilities[i] = probability;
+							isSingleKnown[i] = true;
 						} else {
-							this.singleProbabilities[AminoAcid.typeToInt(aminoAcid)][toBin(phi)][toBin(psi)] += probability;
-							this.singleProbabilities[AminoAcid.typeToInt(aminoAcid)][toBin(phi)][toBin(psi)] /= 2;
+							this.singleProbabilities[i] += probability;
+							this.singleProbabilities[i] /= 2;
 						}
 					} else {
 						AminoAcid.Type neightbourAcid = AminoAcid.Type.valueOf(tokens[2]);
 						
-						Double[][][][] neightbour = (tokens[1].equals("left")) ? this.leftNeightbour : this.rightNeightbour;
+						float[] neightbour = (tokens[1].equals("left")) ? this.leftNeightbour : this.rightNeightbour;
 	
-						neightbour[AminoAcid.typeToInt(aminoAcid)][AminoAcid.typeToInt(neightbourAcid)][toBin(phi)][toBin(psi)] = probability;
+						neightbour[index(aminoAcid, neightbourAcid, toBin(phi), toBin(psi))] = (float) probability;
 					}
 				}
 			}
 		} catch (Exception e){
 			e.printStackTrace();
 		}
+		
+		// precompute the logarithms
+		this.logSingleProbabilities = new double[this.singleProbabilities.length];
+		this.logLeftNeightbour = new float[this.leftNeightbour.length];
+		this.logRightNeightbour = new float[this.rightNeightbour.length];
+		
+		for (int i = 0; i < this.singleProbabilities.length; i++) {
+			this.logSingleProbabilities[i] = Math.log(this.singleProbabilities[i]);
+		}
+		
+		for (int i = 0; i < this.leftNeightbour.length; i++) {
+			this.logLeftNeightbour[i] = (float) Math.log(this.leftNeightbour[i]);
+			this.logRightNeightbour[i] = (float) Math.log(this.rightNeightbour[i]);
+		}
 	}
 	
 	public double probability(AminoAcid.Type aminoAcid, AminoAcid.Type leftNeighbour, AminoAcid.Type rightNeighbour, double phi, double psi) {
-		double left = this.leftNeightbour[AminoAcid.typeToInt(aminoAcid)][AminoAcid.typeToInt(leftNeighbour)][toBin(radianToDegree(phi))][toBin(radianToDegree(psi))];
-		double right = this.rightNeightbour[AminoAcid.typeToInt(aminoAcid)][AminoAcid.typeToInt(rightNeighbour)][toBin(radianToDegree(phi))][toBin(radianToDegree(psi))];
+		int bin = bin(phi, psi);
+		double single = this.singleProbabilities[index(aminoAcid, bin)];
+		
+		if (single == 0)
+			return 0;
 		
-		return (left * right) / this.probability(aminoAcid, phi, psi);
+		return (this.leftNeightbour[index(aminoAcid, leftNeighbour, bin)] * this.rightNeightbour[index(aminoAcid, rightNeighbour, bin)]) / single;
 	}
 	
 	public double probability(AminoAcid.Type aminoAcid, double phi, double psi) {		
-		return this.singleProbabilities[AminoAcid.typeToInt(aminoAcid)][toBin(radianToDegree(phi))][toBin(radianToDegree(psi))];
+		return this.singleProbabilities[index(aminoAcid, bin(phi, psi))];
 	}
 	
+	/**
+	 * The log probability of a pair of phi, psi angles of an amino acid given its 
+	 * neighbours (-infinity if there is no data).
+	 */
+	public double logProbability(AminoAcid.Type aminoAcid, AminoAcid.Type leftNeighbour, AminoAcid.Type rightNeighbour, double phi, double psi) {
+		return this.logProbability(aminoAcid, leftNeighbour, rightNeighbour, bin(phi, psi));
+	}
+	
+	/**
+	 * The log probability of a pair of phi, psi angles of an amino acid (-infinity if 
+	 * there is no data).
+	 */
+	public double logProbability(AminoAcid.Type aminoAcid, double phi, double psi) {
+		return this.logSingleProbabilities[index(aminoAcid, bin(phi, psi))];
+	}
+	
+	/**
+	 * Samples a pair of phi, psi angles of an amino acid given its neighbours. A bin is
+	 * drawn from the alias table of the types in constant time and the angles are 
+	 * uniform within the bin.
+	 */
 	public Tuple2<Double,Double> purposeAngle(AminoAcid.Type aminoAcid, AminoAcid.Type leftNeighbour, AminoAcid.Type rightNeighbour) {
-		// http://en.wikipedia.org/wiki/Rejection_sampling
-		double phi = 0;
-		double psi = 0;
-		double p;
-		
-		do {
-			phi = (Math.random() - 0.5) * Math.PI * 2;
-			psi = (Math.random() - 0.5) * Math.PI * 2;
+		int index = (AminoAcid.typeToInt(aminoAcid) * AminoAcid.count + AminoAcid.typeToInt(leftNeighbour)) * AminoAcid.count + AminoAcid.typeToInt(rightNeighbour);
+		AliasTable table = this.neighbourAliasTables[index];
+		
+		if (table == null) {
+			double[] weights = new double[TABLE];
 			
-			p = this.probability(aminoAcid, leftNeighbour, rightNeighbour, phi, psi);
+			for (int bin = 0; bin < TABLE; bin++) {
+				weights[bin] = Math.exp(this.logProbability(aminoAcid, leftNeighbour, rightNeighbour, bin));
+			}
 			
-		} while(Math.random() >= p);
+			table = this.neighbourAliasTables[index] = new AliasTable(weights);
+		}
 		
-		return new Tuple2<Double,Double>(phi, psi);
+		return sample(table);
 	}
 	
+	/**
+	 * Samples a pair of phi, psi angles of an amino acid. A bin is drawn from the alias
+	 * table of the type in constant time and the angles are uniform within the bin.
+	 */
 	public Tuple2<Double,Double> purposeAngle(AminoAcid.Type aminoAcid) {
-		// http://en.wikipedia.org/wiki/Rejection_sampling
-		double phi = 0;
-		double psi = 0;
-		double p;
-		
-		do {
-			phi = (Math.random() - 0.5) * Math.PI * 2;
-			psi = (Math.random() - 0.5) * Math.PI * 2;
-			
-			p = this.probability(aminoAcid, phi, psi);
-			
-		} while(Math.random() >= p);
-
+		int index = AminoAcid.typeToInt(aminoAcid);
+		AliasTable table = this.aliasTables[index];
+		
+		if (table == null) {
+			table = this.aliasTables[index] = new AliasTable(Arrays.copyOfRange(this.singleProbabilities, index * TABLE, (index+1) * TABLE));
+		}
+		
+		return sample(table);
+	}
+	
+	/**
+	 * The log probabilities of the phi, psi angles of an amino acid indexed by bin.
+	 * Angles without data have log probability -infinity.
+	 * 
+	 * @param aminoAcid The type of the amino acid.
+	 * @return The log probability of each bin (see bin).
+	 */
+	public double[] logProbabilityTable(AminoAcid.Type aminoAcid) {
+		int start = index(aminoAcid, 0);
+		
+		return Arrays.copyOfRange(this.logSingleProbabilities, start, start + TABLE);
+	}
+	
+	/**
+	 * The log probabilities of the phi, psi angles of an amino acid given its neighbours
+	 * indexed by bin. Angles without data have log probability -infinity.
+	 * 
+	 * @param aminoAcid The type of the amino acid.
+	 * @param leftNeighbour The type of the preceding amino acid.
+	 * @param rightNeighbour The type of the following amino acid.
+	 * @return The log probability of each bin (see bin).
+	 */
+	public double[] logProbabilityTable(AminoAcid.Type aminoAcid, AminoAcid.Type leftNeighbour, AminoAcid.Type rightNeighbour) {
+		double[] table = new double[TABLE];
+		
+		for (int bin = 0; bin < TABLE; bin++) {
+			table[bin] = this.logProbability(aminoAcid, leftNeighbour, rightNeighbour, bin);
+		}
+		
+		return table;
+	}
+	
+	/**
+	 * The index of the bin of a pair of phi, psi angles in a log probability table.
+	 * 
+	 * @param phi The phi angle in radians.
+	 * @param psi The psi angle in radians.
+	 * @return The index of the bin.
+	 */
+	public static int bin(double phi, double psi) {
+		return toBin(radianToDegree(phi)) * BINS + toBin(radianToDegree(psi));
+	}
+	
+	private double logProbability(AminoAcid.Type aminoAcid, AminoAcid.Type leftNeighbour, AminoAcid.Type rightNeighbour, int bin) {
+		double single = this.logSingleProbabilities[index(aminoAcid, bin)];
+		
+		if (single == Double.NEGATIVE_INFINITY)
+			return Double.NEGATIVE_INFINITY;
+		
+		return this.logLeftNeightbour[index(aminoAcid, leftNeighbour, bin)] + this.logRightNeightbour[index(aminoAcid, rightNeighbour, bin)] - single;
+	}
+	
+	/**
+	 * Draws a bin from an alias table and a pair of angles uniformly within it.
+	 */
+	private static Tuple2<Double,Double> sample(AliasTable table) {
+		Random random = ThreadLocalRandom.current();
+		int bin = table.sample(random);
+		
+		double phi = ((bin / BINS + random.nextDouble()) * 5 - 180) / RADIAN_TO_DEGREE_FACTOR;
+		double psi = ((bin % BINS + random.nextDouble()) * 5 - 180) / RADIAN_TO_DEGREE_FACTOR;
+		
 		return new Tuple2<Double,Double>(phi, psi);
 	}
 	
+	private static int index(AminoAcid.Type aminoAcid, int phiBin, int psiBin) {
+		return index(aminoAcid, phiBin * BINS + psiBin);
+	}
+	
+	private static int index(AminoAcid.Type aminoAcid, int bin) {
+		return AminoAcid.typeToInt(aminoAcid) * TABLE + bin;
+	}
+	
+	private static int index(AminoAcid.Type aminoAcid, AminoAcid.Type neighbour, int phiBin, int psiBin) {
+		return index(aminoAcid, neighbour, phiBin * BINS + psiBin);
+	}
+	
+	private static int index(AminoAcid.Type aminoAcid, AminoAcid.Type neighbour, int bin) {
+		return (AminoAcid.typeToInt(aminoAcid) * AminoAcid.count + AminoAcid.typeToInt(neighbour)) * TABLE + bin;
+	}
+	
 	private static double radianToDegree(double radian) {
 		return radian * RADIAN_TO_DEGREE_FACTOR;
 	}
 	
+	/**
+	 * The bin of an angle in degrees, where an angle of 180 (or beyond) falls in the last bin.
+	 */
 	private static int toBin(double angle) {
-		return (int) (angle + 180)/5;
+		return Math.max(0, Math.min(BINS-1, (int) (angle + 180)/5));
+	}
+	
+	/**
+	 * Draws an index with probability proportional to its weight in constant time by 
+	 * the alias method (Vose): each index is drawn uniformly and kept with its own 
+	 * probability or else replaced by its alias.
+	 */
+	private static class AliasTable {
+		private final double[] probability;		// the probability of keeping each index
+		private final int[] alias;				// the index replacing each index
+		
+		AliasTable(double[] weights) {
+			int n = weights.length;
+			double sum = 0;
+			
+			for (double weight : weights) {
+				sum += weight;
+			}
+			
+			if (sum <= 0) {
+				throw new IllegalArgumentException("There is no data for the amino acid!");
+			}
+			
+			this.probability = new double[n];
+			this.alias = new int[n];
+			
+			// split the scaled weights into those below and above the average
+			double[] scaled = new double[n];
+			int[] small = new int[n];
+			int[] large = new int[n];
+			int smallCount = 0, largeCount = 0;
+			
+			for (int i = 0; i < n; i++) {
+				scaled[i] = weights[i] * n / sum;
+				
+				if (scaled[i] < 1) {
+					small[smallCount++] = i;
+				} else {
+					large[largeCount++] = i;
+				}
+			}
+			
+			// fill each small index up with a large one
+			while (smallCount > 0 && largeCount > 0) {
+				int less = small[--smallCount];
+				int more = large[--largeCount];
+				
+				this.probability[less] = scaled[less];
+				this.alias[less] = more;
+				
+				scaled[more] = (scaled[more] + scaled[less]) - 1;
+				
+				if (scaled[more] < 1) {
+					small[smallCount++] = more;
+				} else {
+					large[largeCount++] = more;
+				}
+			}
+			
+			// the remaining are full up to rounding
+			while (largeCount > 0) {
+				this.probability[large[--largeCount]] = 1;
+			}
+			
+			while (smallCount > 0) {
+				this.probability[small[--smallCount]] = 1;
+			}
+		}
+		
+		int sample(Random random) {
+			int i = random.nextInt(this.probability.length);
+			
+			return (random.nextDouble() < this.probability[i]) ? i : this.alias[i];
+		}
 	}
 }